@@ -2,20 +2,38 @@
 package com.socksbox.controller;
 
 import com.socksbox.dto.AnalyticsDataDto;
+import com.socksbox.dto.CartLockStatsDto;
+import com.socksbox.dto.CartSweepResultDto;
+import com.socksbox.dto.InventoryDriftDto;
+import com.socksbox.dto.InventoryMovementDto;
+import com.socksbox.dto.InventoryShardsDto;
 import com.socksbox.dto.OrderDto;
+import com.socksbox.dto.ProductImportResultDto;
 import com.socksbox.dto.ProductSalesDto;
 import com.socksbox.dto.UpdateOrderStatusDto;
 import com.socksbox.dto.UserDto;
 import com.socksbox.entity.Order;
 import com.socksbox.service.AnalyticsService;
+import com.socksbox.service.CartLocks;
+import com.socksbox.service.CartSweeper;
+import com.socksbox.service.InventoryService;
 import com.socksbox.service.OrderService;
+import com.socksbox.service.ProductExportService;
+import com.socksbox.service.ProductFileFormat;
+import com.socksbox.service.ProductImportService;
 import com.socksbox.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -31,9 +49,24 @@ public class AdminController {
     @Autowired
     private AnalyticsService analyticsService;
 
+    @Autowired
+    private CartLocks cartLocks;
+
+    @Autowired
+    private CartSweeper cartSweeper;
+
     @Autowired
     private OrderService orderService;
 
+    @Autowired
+    private InventoryService inventoryService;
+
+    @Autowired
+    private ProductImportService productImportService;
+
+    @Autowired
+    private ProductExportService productExportService;
+
     // Customer management endpoints
     @GetMapping("/customers")
     public ResponseEntity<List<UserDto>> getAllCustomers() {
@@ -64,6 +97,77 @@ public class AdminController {
         return ResponseEntity.ok(updatedOrder);
     }
 
+    // Catalog import endpoints
+    @PostMapping(value = "/products/import", consumes = {"text/csv", "application/x-ndjson", "application/jsonl"})
+    public ResponseEntity<ProductImportResultDto> importProducts(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            InputStream body) throws IOException {
+        ProductFileFormat format = contentType.startsWith("text/csv") ? ProductFileFormat.CSV : ProductFileFormat.JSONL;
+        return ResponseEntity.ok(productImportService.importProducts(body, format));
+    }
+
+    @GetMapping("/products/export")
+    public ResponseEntity<StreamingResponseBody> exportProducts(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        ProductFileFormat fileFormat = ProductFileFormat.fromName(format);
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        StreamingResponseBody body = outputStream -> productExportService.exportProducts(outputStream, fileFormat, gzip);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(fileFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"products." + fileFormat.getExtension() + "\"")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    // Cart maintenance endpoints
+    @PostMapping("/carts/sweep")
+    public ResponseEntity<CartSweepResultDto> sweepIdleCarts() {
+        return ResponseEntity.ok(cartSweeper.sweep());
+    }
+
+    @GetMapping("/carts/sweep")
+    public ResponseEntity<CartSweepResultDto> getLastCartSweep() {
+        CartSweepResultDto result = cartSweeper.getLastResult();
+        return result != null ? ResponseEntity.ok(result) : ResponseEntity.noContent().build();
+    }
+
+    // Inventory endpoints, a shard count below 2 merges a product's shards back
+    @GetMapping("/products/{id}/inventory-shards")
+    public ResponseEntity<InventoryShardsDto> getInventoryShards(@PathVariable Long id) {
+        return ResponseEntity.ok(toShardsDto(id, inventoryService.getShards(id)));
+    }
+
+    @PutMapping("/products/{id}/inventory-shards")
+    public ResponseEntity<InventoryShardsDto> reshardInventory(@PathVariable Long id, @RequestParam int count) {
+        if (count > InventoryService.MAX_SHARDS) {
+            throw new IllegalArgumentException("At most " + InventoryService.MAX_SHARDS + " shards per product");
+        }
+        return ResponseEntity.ok(toShardsDto(id, inventoryService.reshard(id, count, null)));
+    }
+
+    @GetMapping("/products/{id}/inventory-movements")
+    public ResponseEntity<List<InventoryMovementDto>> getInventoryMovements(
+            @PathVariable Long id,
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(inventoryService.getMovements(id, afterId, limit));
+    }
+
+    @GetMapping("/inventory/drift")
+    public ResponseEntity<List<InventoryDriftDto>> getInventoryDrift() {
+        return ResponseEntity.ok(inventoryService.getDrift());
+    }
+
+    @PostMapping("/inventory/rebuild")
+    public ResponseEntity<List<InventoryDriftDto>> rebuildInventory() {
+        return ResponseEntity.ok(inventoryService.rebuildFromLedger());
+    }
+
     // Analytics endpoints
     @GetMapping("/analytics/sales")
     public ResponseEntity<AnalyticsDataDto> getSalesData() {
@@ -79,4 +183,13 @@ public class AdminController {
     public ResponseEntity<Map<String, Long>> getCustomerAcquisitionData() {
         return ResponseEntity.ok(analyticsService.getCustomerAcquisitionData());
     }
+
+    @GetMapping("/analytics/cart-locks")
+    public ResponseEntity<CartLockStatsDto> getCartLockStats() {
+        return ResponseEntity.ok(cartLocks.getStats());
+    }
+
+    private InventoryShardsDto toShardsDto(Long productId, int[] shards) {
+        return new InventoryShardsDto(productId, Arrays.stream(shards).sum(), Arrays.stream(shards).boxed().toList());
+    }
 }
@@ -6,6 +6,7 @@ import com.socksbox.dto.RegisterRequestDto;
 import com.socksbox.dto.UserDto;
 import com.socksbox.entity.User;
 import com.socksbox.security.JwtTokenProvider;
+import com.socksbox.service.CartService;
 import com.socksbox.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -34,8 +35,13 @@ public class AuthController {
     @Autowired
     private JwtTokenProvider tokenProvider;
 
+    @Autowired
+    private CartService cartService;
+
     @PostMapping("/login")
     public ResponseEntity<?> authenticateUser(@Valid @RequestBody LoginRequestDto loginRequest) {
+        Map<String, Object> response = new HashMap<>();
+        UserDto user;
         try {
             Authentication authentication = authenticationManager.authenticate(
                     new UsernamePasswordAuthenticationToken(
@@ -47,17 +53,24 @@ public class AuthController {
             SecurityContextHolder.getContext().setAuthentication(authentication);
             String jwt = tokenProvider.generateToken(authentication);
             
-            UserDto user = userService.getUserDtoByEmail(loginRequest.getEmail());
+            user = userService.getUserDtoByEmail(loginRequest.getEmail());
             
-            Map<String, Object> response = new HashMap<>();
             response.put("token", jwt);
             response.put("user", user);
-            
-            return ResponseEntity.ok(response);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                     .body(Map.of("message", "Invalid email or password"));
         }
+
+        // A guest cart that cannot be merged must not fail the login
+        if (loginRequest.getGuestCart() != null && !loginRequest.getGuestCart().isBlank()) {
+            try {
+                response.put("cart", cartService.mergeGuestCart(user.getId(), loginRequest.getGuestCart()));
+            } catch (RuntimeException e) {
+                response.put("guestCartError", e.getMessage());
+            }
+        }
+        return ResponseEntity.ok(response);
     }
 
     @PostMapping("/register")
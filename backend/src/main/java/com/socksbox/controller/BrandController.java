@@ -2,12 +2,16 @@
 package com.socksbox.controller;
 
 import com.socksbox.dto.BrandDto;
+import com.socksbox.service.CatalogVersion;
 import com.socksbox.service.BrandService;
+import com.socksbox.service.JsonResponseCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import jakarta.validation.Valid;
 import java.util.List;
@@ -20,18 +24,36 @@ public class BrandController {
     @Autowired
     private BrandService brandService;
 
+    @Autowired
+    private CatalogVersion catalogVersion;
+
+    @Autowired
+    private JsonResponseCache jsonResponseCache;
+
     @GetMapping
-    public ResponseEntity<List<BrandDto>> getAllBrands() {
-        return ResponseEntity.ok(brandService.getAllBrands());
+    public ResponseEntity<byte[]> getAllBrands(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest webRequest) {
+        if (catalogVersion.checkBrandsAndCategoriesNotModified(webRequest, acceptEncoding)) {
+            return null;
+        }
+        return jsonResponseCache.get(JsonResponseCache.BRANDS, brandService::getAllBrands)
+                .toResponse(acceptEncoding);
     }
 
     @GetMapping("/featured")
-    public ResponseEntity<List<BrandDto>> getFeaturedBrands() {
+    public ResponseEntity<List<BrandDto>> getFeaturedBrands(WebRequest webRequest) {
+        if (catalogVersion.checkBrandsAndCategoriesNotModified(webRequest)) {
+            return null;
+        }
         return ResponseEntity.ok(brandService.getFeaturedBrands());
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<BrandDto> getBrandById(@PathVariable Long id) {
+    public ResponseEntity<BrandDto> getBrandById(@PathVariable Long id, WebRequest webRequest) {
+        if (catalogVersion.checkBrandsAndCategoriesNotModified(webRequest)) {
+            return null;
+        }
         return ResponseEntity.ok(brandService.getBrandById(id));
     }
 
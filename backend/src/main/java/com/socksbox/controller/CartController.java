@@ -3,8 +3,11 @@ package com.socksbox.controller;
 
 import com.socksbox.dto.CartDto;
 import com.socksbox.dto.CartItemDto;
+import com.socksbox.dto.CartPatchDto;
+import com.socksbox.dto.GuestCartDto;
 import com.socksbox.dto.UpdateCartItemDto;
 import com.socksbox.service.CartService;
+import com.socksbox.service.GuestCartService;
 import com.socksbox.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -20,17 +23,28 @@ import jakarta.validation.Valid;
 @CrossOrigin(origins = {"http://localhost:3000", "http://localhost:8080"})
 public class CartController {
 
+    private static final String GUEST_CART_HEADER = "X-Guest-Cart";
+
     @Autowired
     private CartService cartService;
 
+    @Autowired
+    private GuestCartService guestCartService;
+
     @Autowired
     private UserService userService;
 
     @GetMapping
-    public ResponseEntity<CartDto> getUserCart(@AuthenticationPrincipal UserDetails userDetails) {
+    public ResponseEntity<CartDto> getUserCart(
+            @AuthenticationPrincipal UserDetails userDetails,
+            @RequestParam(required = false) Long since) {
         String email = userDetails.getUsername();
         Long userId = userService.getUserByEmail(email).getId();
-        return ResponseEntity.ok(cartService.getCartByUserId(userId));
+        CartDto cart = cartService.getCartChanges(userId, since);
+        if (cart == null) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        }
+        return ResponseEntity.ok(cart);
     }
 
     @PostMapping
@@ -43,6 +57,15 @@ public class CartController {
         return ResponseEntity.status(HttpStatus.CREATED).body(updatedCart);
     }
 
+    @PatchMapping
+    public ResponseEntity<CartDto> applyCartOperations(
+            @AuthenticationPrincipal UserDetails userDetails,
+            @Valid @RequestBody CartPatchDto patchDto) {
+        String email = userDetails.getUsername();
+        Long userId = userService.getUserByEmail(email).getId();
+        return ResponseEntity.ok(cartService.applyOperations(userId, patchDto.getOperations()));
+    }
+
     @PutMapping("/items/{itemId}")
     public ResponseEntity<CartDto> updateCartItemQuantity(
             @AuthenticationPrincipal UserDetails userDetails,
@@ -71,4 +94,26 @@ public class CartController {
         CartDto emptyCart = cartService.clearCart(userId);
         return ResponseEntity.ok(emptyCart);
     }
+
+    @PostMapping("/merge")
+    public ResponseEntity<CartDto> mergeGuestCart(
+            @AuthenticationPrincipal UserDetails userDetails,
+            @RequestHeader(GUEST_CART_HEADER) String guestCart) {
+        String email = userDetails.getUsername();
+        Long userId = userService.getUserByEmail(email).getId();
+        return ResponseEntity.ok(cartService.mergeGuestCart(userId, guestCart));
+    }
+
+    @GetMapping("/guest")
+    public ResponseEntity<GuestCartDto> getGuestCart(
+            @RequestHeader(value = GUEST_CART_HEADER, required = false) String guestCart) {
+        return ResponseEntity.ok(guestCartService.getCart(guestCart));
+    }
+
+    @PatchMapping("/guest")
+    public ResponseEntity<GuestCartDto> applyGuestCartOperations(
+            @RequestHeader(value = GUEST_CART_HEADER, required = false) String guestCart,
+            @Valid @RequestBody CartPatchDto patchDto) {
+        return ResponseEntity.ok(guestCartService.applyOperations(guestCart, patchDto.getOperations()));
+    }
 }
@@ -2,12 +2,16 @@
 package com.socksbox.controller;
 
 import com.socksbox.dto.CategoryDto;
+import com.socksbox.service.CatalogVersion;
 import com.socksbox.service.CategoryService;
+import com.socksbox.service.JsonResponseCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import jakarta.validation.Valid;
 import java.util.List;
@@ -20,13 +24,28 @@ public class CategoryController {
     @Autowired
     private CategoryService categoryService;
 
+    @Autowired
+    private CatalogVersion catalogVersion;
+
+    @Autowired
+    private JsonResponseCache jsonResponseCache;
+
     @GetMapping
-    public ResponseEntity<List<CategoryDto>> getAllCategories() {
-        return ResponseEntity.ok(categoryService.getAllCategories());
+    public ResponseEntity<byte[]> getAllCategories(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest webRequest) {
+        if (catalogVersion.checkBrandsAndCategoriesNotModified(webRequest, acceptEncoding)) {
+            return null;
+        }
+        return jsonResponseCache.get(JsonResponseCache.CATEGORIES, categoryService::getAllCategories)
+                .toResponse(acceptEncoding);
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<CategoryDto> getCategoryById(@PathVariable Long id) {
+    public ResponseEntity<CategoryDto> getCategoryById(@PathVariable Long id, WebRequest webRequest) {
+        if (catalogVersion.checkBrandsAndCategoriesNotModified(webRequest)) {
+            return null;
+        }
         return ResponseEntity.ok(categoryService.getCategoryById(id));
     }
 
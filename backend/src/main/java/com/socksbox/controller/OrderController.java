@@ -6,6 +6,8 @@ import com.socksbox.dto.OrderDto;
 import com.socksbox.dto.UpdateOrderStatusDto;
 import com.socksbox.entity.Address;
 import com.socksbox.entity.Order;
+import com.socksbox.service.CartService;
+import com.socksbox.service.IdempotencyStore;
 import com.socksbox.service.OrderService;
 import com.socksbox.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,6 +32,12 @@ public class OrderController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private CartService cartService;
+
     @GetMapping
     public ResponseEntity<List<OrderDto>> getUserOrders(@AuthenticationPrincipal UserDetails userDetails) {
         String email = userDetails.getUsername();
@@ -58,6 +66,7 @@ public class OrderController {
     @PostMapping
     public ResponseEntity<OrderDto> createOrder(
             @AuthenticationPrincipal UserDetails userDetails,
+            @RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey,
             @Valid @RequestBody CreateOrderRequestDto createOrderRequest) {
         String email = userDetails.getUsername();
         Long userId = userService.getUserByEmail(email).getId();
@@ -70,7 +79,11 @@ public class OrderController {
                 createOrderRequest.getCountry()
         );
         
-        OrderDto createdOrder = orderService.createOrderFromCart(userId, shippingAddress);
-        return ResponseEntity.status(HttpStatus.CREATED).body(createdOrder);
+        // Before the idempotency transaction opens, so the cart write does not need a connection of its own
+        cartService.flushCart(userId);
+        return idempotencyStore.execute("orders:" + userId, idempotencyKey, createOrderRequest, OrderDto.class, () -> {
+            OrderDto createdOrder = orderService.createOrderFromCart(userId, shippingAddress);
+            return ResponseEntity.status(HttpStatus.CREATED).body(createdOrder);
+        });
     }
 }
@@ -3,9 +3,13 @@ package com.socksbox.controller;
 
 import com.socksbox.dto.PaymentRequestDto;
 import com.socksbox.dto.PaymentResponseDto;
+import com.socksbox.service.IdempotencyStore;
 import com.socksbox.service.PaymentService;
+import com.socksbox.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.validation.Valid;
@@ -18,10 +22,22 @@ public class PaymentController {
     @Autowired
     private PaymentService paymentService;
 
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
     @PostMapping("/initiate")
-    public ResponseEntity<PaymentResponseDto> initiatePayment(@Valid @RequestBody PaymentRequestDto paymentRequest) {
-        PaymentResponseDto response = paymentService.initiatePrimaryPayment(paymentRequest);
-        return ResponseEntity.ok(response);
+    public ResponseEntity<PaymentResponseDto> initiatePayment(
+            @AuthenticationPrincipal UserDetails userDetails,
+            @RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey,
+            @Valid @RequestBody PaymentRequestDto paymentRequest) {
+        Long userId = userService.getUserByEmail(userDetails.getUsername()).getId();
+        return idempotencyStore.execute("payments:" + userId, idempotencyKey, paymentRequest, PaymentResponseDto.class, () -> {
+            PaymentResponseDto response = paymentService.initiatePrimaryPayment(paymentRequest);
+            return ResponseEntity.ok(response);
+        });
     }
 
     @GetMapping("/verify")
@@ -1,13 +1,22 @@
 
 package com.socksbox.controller;
 
+import com.socksbox.dto.FacetedProductsDto;
 import com.socksbox.dto.ProductDto;
+import com.socksbox.dto.ProductPageDto;
+import com.socksbox.dto.SuggestionDto;
+import com.socksbox.service.CatalogVersion;
+import com.socksbox.service.JsonResponseCache;
 import com.socksbox.service.ProductService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.validation.Valid;
 import java.util.List;
@@ -20,39 +29,122 @@ public class ProductController {
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private CatalogVersion catalogVersion;
+
+    @Autowired
+    private JsonResponseCache jsonResponseCache;
+
     @GetMapping
     public ResponseEntity<List<ProductDto>> getAllProducts(
             @RequestParam(required = false) Long categoryId,
             @RequestParam(required = false) Long brandId,
+            @RequestParam(required = false) List<String> colors,
+            @RequestParam(required = false) List<String> sizes,
             @RequestParam(required = false) Double minPrice,
-            @RequestParam(required = false) Double maxPrice) {
+            @RequestParam(required = false) Double maxPrice,
+            WebRequest webRequest) {
+        if (catalogVersion.checkNotModified(webRequest)) {
+            return null;
+        }
         
-        if (categoryId == null && brandId == null && minPrice == null && maxPrice == null) {
+        if (categoryId == null && brandId == null && colors == null && sizes == null
+                && minPrice == null && maxPrice == null) {
             return ResponseEntity.ok(productService.getAllProducts());
         }
         
-        List<ProductDto> filteredProducts = productService.getProductsByFilters(categoryId, brandId, minPrice, maxPrice);
+        List<ProductDto> filteredProducts = productService.getProductsByFilters(
+                categoryId, brandId, colors, sizes, minPrice, maxPrice);
         return ResponseEntity.ok(filteredProducts);
     }
 
+    @GetMapping("/facets")
+    public ResponseEntity<FacetedProductsDto> getFacetedProducts(
+            @RequestParam(required = false) Long categoryId,
+            @RequestParam(required = false) Long brandId,
+            @RequestParam(required = false) List<String> colors,
+            @RequestParam(required = false) List<String> sizes,
+            @RequestParam(required = false) Double minPrice,
+            @RequestParam(required = false) Double maxPrice,
+            WebRequest webRequest) {
+        if (catalogVersion.checkNotModified(webRequest)) {
+            return null;
+        }
+        return ResponseEntity.ok(productService.getFacetedProducts(
+                categoryId, brandId, colors, sizes, minPrice, maxPrice));
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<List<ProductDto>> searchProducts(
+            @RequestParam("q") String query,
+            @RequestParam(required = false) Integer limit,
+            WebRequest webRequest) {
+        if (catalogVersion.checkNotModified(webRequest)) {
+            return null;
+        }
+        return ResponseEntity.ok(productService.searchProducts(query, limit));
+    }
+
+    @GetMapping("/suggest")
+    public ResponseEntity<List<SuggestionDto>> suggest(
+            @RequestParam String prefix,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(productService.suggest(prefix, limit));
+    }
+
+    @GetMapping("/page")
+    public ResponseEntity<ProductPageDto> getProductPage(
+            @RequestParam(defaultValue = "id") String sort,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(productService.getProductPage(sort, cursor, limit));
+    }
+
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllProducts() {
+        StreamingResponseBody body = productService::streamAllProducts;
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
     @GetMapping("/featured")
-    public ResponseEntity<List<ProductDto>> getFeaturedProducts() {
-        return ResponseEntity.ok(productService.getFeaturedProducts());
+    public ResponseEntity<byte[]> getFeaturedProducts(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest webRequest) {
+        if (catalogVersion.checkNotModified(webRequest, acceptEncoding)) {
+            return null;
+        }
+        return jsonResponseCache.get(JsonResponseCache.FEATURED_PRODUCTS, productService::getFeaturedProducts)
+                .toResponse(acceptEncoding);
     }
 
     @GetMapping("/category/{categoryId}")
-    public ResponseEntity<List<ProductDto>> getProductsByCategory(@PathVariable Long categoryId) {
+    public ResponseEntity<List<ProductDto>> getProductsByCategory(@PathVariable Long categoryId, WebRequest webRequest) {
+        if (catalogVersion.checkNotModified(webRequest)) {
+            return null;
+        }
         return ResponseEntity.ok(productService.getProductsByCategory(categoryId));
     }
 
     @GetMapping("/brand/{brandId}")
-    public ResponseEntity<List<ProductDto>> getProductsByBrand(@PathVariable Long brandId) {
+    public ResponseEntity<List<ProductDto>> getProductsByBrand(@PathVariable Long brandId, WebRequest webRequest) {
+        if (catalogVersion.checkNotModified(webRequest)) {
+            return null;
+        }
         return ResponseEntity.ok(productService.getProductsByBrand(brandId));
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<ProductDto> getProductById(@PathVariable Long id) {
-        return ResponseEntity.ok(productService.getProductById(id));
+    public ResponseEntity<byte[]> getProductById(
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest webRequest) {
+        if (catalogVersion.checkNotModified(webRequest, acceptEncoding)) {
+            return null;
+        }
+        return jsonResponseCache.get(JsonResponseCache.product(id), () -> productService.getProductById(id))
+                .toResponse(acceptEncoding);
     }
 
     @PostMapping
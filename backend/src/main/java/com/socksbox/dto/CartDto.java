@@ -17,4 +17,11 @@ public class CartDto {
     private Long userId;
     private List<CartItemDto> items = new ArrayList<>();
     private BigDecimal totalAmount = BigDecimal.ZERO;
+    private int itemCount;
+    private Long version;
+
+    // When true, items only holds the lines changed since the requested version
+    // and removedItemIds the lines dropped since then
+    private boolean delta;
+    private List<Long> removedItemIds = new ArrayList<>();
 }
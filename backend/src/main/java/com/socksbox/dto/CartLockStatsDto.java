@@ -0,0 +1,21 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartLockStatsDto {
+    private int stripes;
+    private long acquisitions;
+
+    // Acquisitions that found the lock held and had to wait
+    private long contended;
+    private long timedOut;
+    private double contentionRatio;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+}
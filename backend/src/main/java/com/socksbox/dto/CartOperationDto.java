@@ -0,0 +1,32 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartOperationDto {
+    @NotNull(message = "Operation type is required")
+    private Type type;
+    
+    // Target line of UPDATE and REMOVE
+    private Long itemId;
+    
+    // Product, color and size of ADD
+    private Long productId;
+    private String color;
+    private String size;
+    
+    @Min(value = 0, message = "Quantity cannot be negative")
+    private Integer quantity;
+    
+    public enum Type {
+        ADD, UPDATE, REMOVE
+    }
+}
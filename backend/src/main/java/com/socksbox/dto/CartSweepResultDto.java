@@ -0,0 +1,23 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartSweepResultDto {
+    private LocalDateTime startedAt;
+
+    // Carts not used since this time were swept
+    private LocalDateTime idleSince;
+    private boolean archived;
+    private long cartsRemoved;
+    private long itemsRemoved;
+    private int chunks;
+    private long elapsedMillis;
+}
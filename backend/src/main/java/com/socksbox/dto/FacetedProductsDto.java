@@ -0,0 +1,22 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FacetedProductsDto {
+    private List<ProductDto> items = new ArrayList<>();
+    private Integer total = 0;
+    
+    // Facet name (category, brand, color, size, price) -> facet value -> matching product count
+    private Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+}
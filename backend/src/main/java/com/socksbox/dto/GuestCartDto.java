@@ -0,0 +1,15 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GuestCartDto {
+    // Send back in the X-Guest-Cart header on the next guest cart request
+    private String token;
+    private CartDto cart;
+}
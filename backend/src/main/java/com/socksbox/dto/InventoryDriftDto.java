@@ -0,0 +1,17 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InventoryDriftDto {
+    private Long productId;
+
+    // Stock replayed from the ledger and stock the product row and its shards hold
+    private long ledgerStock;
+    private long stock;
+}
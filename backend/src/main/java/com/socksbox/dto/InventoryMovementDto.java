@@ -0,0 +1,27 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InventoryMovementDto {
+    private Long id;
+    private Long productId;
+    private Type type;
+
+    // Signed change of the product's stock
+    private int quantity;
+    private Long orderId;
+    private LocalDateTime createdAt;
+
+    public enum Type {
+        // Stock a product had when the ledger started tracking it
+        OPENING, SALE, CANCEL, ADJUSTMENT, IMPORT
+    }
+}
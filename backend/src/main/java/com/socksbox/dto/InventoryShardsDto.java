@@ -0,0 +1,20 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InventoryShardsDto {
+    private Long productId;
+    private int inventory;
+
+    // Quantity per shard, empty when the product's stock is not sharded
+    private List<Integer> shards = new ArrayList<>();
+}
@@ -18,4 +18,7 @@ public class LoginRequestDto {
     
     @NotBlank(message = "Password is required")
     private String password;
+
+    // Guest cart token to merge into the user's cart
+    private String guestCart;
 }
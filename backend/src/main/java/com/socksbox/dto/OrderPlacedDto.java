@@ -0,0 +1,21 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Payload of the outbox event written with a new order: the cart lines the order was
+ * made from with their ordered quantities, and the products whose stock it took.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderPlacedDto {
+    private Map<Long, Integer> cartItemQuantities;
+    private List<Long> productIds;
+}
@@ -0,0 +1,23 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductImportResultDto {
+    private int imported;
+    private int failed;
+    
+    // Only the first errors are listed, failed still counts every rejected row
+    private List<ProductImportErrorDto> errors = new ArrayList<>();
+    
+    private long elapsedMillis;
+    private double rowsPerSecond;
+}
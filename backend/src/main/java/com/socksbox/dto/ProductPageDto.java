@@ -0,0 +1,19 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductPageDto {
+    private List<ProductDto> items = new ArrayList<>();
+    
+    // Opaque keyset cursor for the following page, null on the last page
+    private String next;
+}
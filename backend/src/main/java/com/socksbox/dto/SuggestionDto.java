@@ -0,0 +1,19 @@
+
+package com.socksbox.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SuggestionDto {
+    private Type type;
+    private Long id;
+    private String text;
+    
+    public enum Type {
+        PRODUCT, BRAND, CATEGORY
+    }
+}
@@ -37,9 +37,14 @@ public class Cart {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt = LocalDateTime.now();
     
+    // Running totals kept by the cart store on every change, in cents
+    @Column(name = "subtotal_minor")
+    private Long subtotalMinor = 0L;
+    
+    @Column(name = "item_count")
+    private Integer itemCount = 0;
+    
     public BigDecimal getTotalAmount() {
-        return items.stream()
-                .map(item -> item.getPrice().multiply(new BigDecimal(item.getQuantity())))
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return BigDecimal.valueOf(subtotalMinor, 2);
     }
 }
@@ -37,18 +37,24 @@ public class Product {
     private Boolean featured = false;
     
     @ElementCollection(fetch = FetchType.LAZY)
-    @CollectionTable(name = "product_images", joinColumns = @JoinColumn(name = "product_id"))
+    @CollectionTable(name = "product_images", joinColumns = @JoinColumn(name = "product_id"),
+            indexes = @Index(columnList = "product_id"))
     @Column(name = "image_url")
+    @OrderColumn(name = "sort_order")
     private List<String> images = new ArrayList<>();
     
     @ElementCollection(fetch = FetchType.LAZY)
-    @CollectionTable(name = "product_colors", joinColumns = @JoinColumn(name = "product_id"))
+    @CollectionTable(name = "product_colors", joinColumns = @JoinColumn(name = "product_id"),
+            indexes = @Index(columnList = "product_id"))
     @Column(name = "color")
+    @OrderColumn(name = "sort_order")
     private List<String> colors = new ArrayList<>();
     
     @ElementCollection(fetch = FetchType.LAZY)
-    @CollectionTable(name = "product_sizes", joinColumns = @JoinColumn(name = "product_id"))
+    @CollectionTable(name = "product_sizes", joinColumns = @JoinColumn(name = "product_id"),
+            indexes = @Index(columnList = "product_id"))
     @Column(name = "size")
+    @OrderColumn(name = "sort_order")
     private List<String> sizes = new ArrayList<>();
     
     @ManyToOne(fetch = FetchType.LAZY)
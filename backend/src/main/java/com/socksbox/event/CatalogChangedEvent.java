@@ -0,0 +1,63 @@
+
+package com.socksbox.event;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Published after a write that changes what anonymous catalog reads return.
+ * Carries the ids of the products that changed, or no ids at all when the
+ * change can touch any product (category or brand edits, bulk writes).
+ * Stock-only events come from checkouts, cancellations and stock adjustments and
+ * leave everything but the products' stock as it was. Price events come from a
+ * product edit that changed the price, along with whatever else it changed.
+ */
+public class CatalogChangedEvent {
+
+    private enum Kind { CHANGED, STOCK, PRICE }
+
+    private final Set<Long> productIds;
+    private final Kind kind;
+
+    private CatalogChangedEvent(Set<Long> productIds, Kind kind) {
+        this.productIds = productIds;
+        this.kind = kind;
+    }
+
+    public static CatalogChangedEvent products(Collection<Long> productIds) {
+        return new CatalogChangedEvent(Set.copyOf(productIds), Kind.CHANGED);
+    }
+
+    public static CatalogChangedEvent product(Long productId) {
+        return new CatalogChangedEvent(Set.of(productId), Kind.CHANGED);
+    }
+
+    public static CatalogChangedEvent stock(Collection<Long> productIds) {
+        return new CatalogChangedEvent(Set.copyOf(productIds), Kind.STOCK);
+    }
+
+    public static CatalogChangedEvent priceChanged(Long productId) {
+        return new CatalogChangedEvent(Set.of(productId), Kind.PRICE);
+    }
+
+    public static CatalogChangedEvent all() {
+        return new CatalogChangedEvent(Collections.emptySet(), Kind.CHANGED);
+    }
+
+    public boolean isFullReload() {
+        return productIds.isEmpty();
+    }
+
+    public boolean isStockOnly() {
+        return kind == Kind.STOCK;
+    }
+
+    public boolean isPriceChange() {
+        return kind == Kind.PRICE;
+    }
+
+    public Set<Long> getProductIds() {
+        return productIds;
+    }
+}
@@ -0,0 +1,189 @@
+
+package com.socksbox.repository;
+
+import com.socksbox.dto.CartItemDto;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Plain JDBC access to {@code carts} and {@code cart_items} for the write-behind cart
+ * store. Cart item ids are handed out from the identity sequence ahead of time, so new
+ * lines have their final id while they only exist in memory. Every write is an
+ * idempotent upsert on the line's natural key (cart, product, color, size), backed by
+ * the unique index from {@code schema.sql}, so a line can never be stored twice.
+ * <p>
+ * Loading a cart stamps its {@code updated_at}, which keeps the idle cart sweeper away
+ * from carts that are in use even when they are only read.
+ */
+@Repository
+public class CartJdbcRepository {
+
+    private static final String SELECT_ITEMS =
+            "SELECT ci.id, ci.product_id, ci.quantity, ci.price, ci.color, ci.size, p.name AS product_name, " +
+            "(SELECT pi.image_url FROM product_images pi WHERE pi.product_id = p.id ORDER BY pi.sort_order LIMIT 1) AS image_url " +
+            "FROM cart_items ci JOIN products p ON p.id = ci.product_id " +
+            "WHERE ci.cart_id = ? ORDER BY ci.id";
+
+    private static final String UPSERT_ITEM =
+            "INSERT INTO cart_items (id, cart_id, product_id, quantity, price, color, size) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT (cart_id, product_id, COALESCE(color, ''), COALESCE(size, '')) " +
+            "DO UPDATE SET quantity = EXCLUDED.quantity, price = EXCLUDED.price";
+
+    // Carts a concurrent load has already stamped are locked or no longer idle, both are skipped
+    private static final String DELETE_IDLE_CARTS =
+            "WITH idle AS (SELECT id FROM carts WHERE updated_at < ? ORDER BY updated_at LIMIT ? FOR UPDATE SKIP LOCKED), " +
+            "deleted_items AS (DELETE FROM cart_items WHERE cart_id IN (SELECT id FROM idle) " +
+            "RETURNING id, cart_id, product_id, quantity, price, color, size), " +
+            "deleted_carts AS (DELETE FROM carts WHERE id IN (SELECT id FROM idle) " +
+            "RETURNING id, user_id, created_at, updated_at) ";
+
+    private static final String ARCHIVE_DELETED =
+            ", archived_items AS (INSERT INTO cart_items_archive (id, cart_id, product_id, quantity, price, color, size) " +
+            "SELECT id, cart_id, product_id, quantity, price, color, size FROM deleted_items), " +
+            "archived_carts AS (INSERT INTO carts_archive (id, user_id, created_at, updated_at, archived_at) " +
+            "SELECT id, user_id, created_at, updated_at, now() FROM deleted_carts) ";
+
+    // Sibling statements in one WITH cannot see each other's writes, so the cart subtotals
+    // are moved by the difference between the old and new line amounts
+    private static final String REPRICE_ITEMS =
+            "WITH stale AS (SELECT ci.id, ci.cart_id, ci.quantity, ci.price AS old_price, p.price AS new_price " +
+            "FROM cart_items ci JOIN products p ON p.id = ci.product_id WHERE ci.price <> p.price %s FOR UPDATE OF ci), " +
+            "repriced AS (UPDATE cart_items ci SET price = stale.new_price FROM stale WHERE ci.id = stale.id) " +
+            "UPDATE carts c SET subtotal_minor = c.subtotal_minor + d.delta " +
+            "FROM (SELECT cart_id, SUM(ROUND((new_price - old_price) * 100) * quantity) AS delta " +
+            "FROM stale GROUP BY cart_id) d WHERE c.id = d.cart_id RETURNING c.user_id";
+
+    private static final String COUNT_DELETED =
+            "SELECT (SELECT count(*) FROM deleted_carts) AS carts, (SELECT count(*) FROM deleted_items) AS items";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Stamps the user's cart as used and returns its id. Runs as one statement so the
+     * sweeper either sees the new stamp or has already removed the cart.
+     */
+    public Optional<Long> touchCart(Long userId) {
+        return jdbcTemplate.queryForList("UPDATE carts SET updated_at = ? WHERE user_id = ? RETURNING id",
+                        Long.class, Timestamp.valueOf(LocalDateTime.now()), userId)
+                .stream()
+                .findFirst();
+    }
+
+    public Long createCart(Long userId) {
+        LocalDateTime now = LocalDateTime.now();
+        return jdbcTemplate.queryForObject(
+                "INSERT INTO carts (user_id, created_at, updated_at, subtotal_minor, item_count) " +
+                "VALUES (?, ?, ?, 0, 0) RETURNING id",
+                Long.class, userId, Timestamp.valueOf(now), Timestamp.valueOf(now));
+    }
+
+    public List<CartItemDto> findItems(Long cartId) {
+        return jdbcTemplate.query(SELECT_ITEMS, (rs, rowNum) -> {
+            CartItemDto item = new CartItemDto();
+            item.setId(rs.getLong("id"));
+            item.setProductId(rs.getLong("product_id"));
+            item.setProductName(rs.getString("product_name"));
+            item.setQuantity(rs.getInt("quantity"));
+            item.setPrice(rs.getBigDecimal("price"));
+            item.setColor(rs.getString("color"));
+            item.setSize(rs.getString("size"));
+            item.setImageUrl(rs.getString("image_url"));
+            return item;
+        }, cartId);
+    }
+
+    public List<Long> allocateItemIds(int count) {
+        return jdbcTemplate.queryForList(
+                "SELECT nextval(pg_get_serial_sequence('cart_items', 'id')) FROM generate_series(1, ?)",
+                Long.class, count);
+    }
+
+    /**
+     * Writes the changes of many carts as three JDBC batches in one transaction. The cart
+     * row gets the running totals the store keeps in memory.
+     */
+    @Transactional
+    public void write(Collection<CartChanges> carts) {
+        List<Object[]> deletes = new ArrayList<>();
+        List<Object[]> upserts = new ArrayList<>();
+        List<Object[]> touches = new ArrayList<>();
+        for (CartChanges cart : carts) {
+            for (Long itemId : cart.getDeletedItemIds()) {
+                deletes.add(new Object[]{itemId});
+            }
+            for (CartItemDto item : cart.getUpsertedItems()) {
+                upserts.add(new Object[]{item.getId(), cart.getCartId(), item.getProductId(), item.getQuantity(),
+                        item.getPrice(), item.getColor(), item.getSize()});
+            }
+            touches.add(new Object[]{Timestamp.valueOf(cart.getUpdatedAt()), cart.getSubtotalMinor(),
+                    cart.getItemCount(), cart.getCartId()});
+        }
+
+        jdbcTemplate.batchUpdate("DELETE FROM cart_items WHERE id = ?", deletes);
+        jdbcTemplate.batchUpdate(UPSERT_ITEM, upserts);
+        jdbcTemplate.batchUpdate("UPDATE carts SET updated_at = ?, subtotal_minor = ?, item_count = ? WHERE id = ?",
+                touches);
+    }
+
+    /**
+     * Copies the current product price into every cart line that still has an older one,
+     * for the given products or for all of them when none are given. Returns the owners
+     * of the carts that changed, once per cart.
+     */
+    public List<Long> repriceItems(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return jdbcTemplate.queryForList(String.format(REPRICE_ITEMS, ""), Long.class);
+        }
+        return jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(String.format(REPRICE_ITEMS, "AND ci.product_id = ANY(?)"));
+            ps.setArray(1, con.createArrayOf("bigint", productIds.toArray()));
+            return ps;
+        }, (rs, rowNum) -> rs.getLong(1));
+    }
+
+    /**
+     * Removes up to {@code limit} carts not used since {@code idleSince}, and their items,
+     * in one statement, copying them to the archive tables first when asked to.
+     */
+    public SweptCarts deleteIdleCarts(LocalDateTime idleSince, int limit, boolean archive) {
+        String sql = DELETE_IDLE_CARTS + (archive ? ARCHIVE_DELETED : "") + COUNT_DELETED;
+        return jdbcTemplate.queryForObject(sql,
+                (rs, rowNum) -> new SweptCarts(rs.getInt("carts"), rs.getInt("items")),
+                Timestamp.valueOf(idleSince), limit);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SweptCarts {
+        private int carts;
+        private int items;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CartChanges {
+        private Long cartId;
+        private LocalDateTime updatedAt;
+        private long subtotalMinor;
+        private int itemCount;
+        private List<CartItemDto> upsertedItems = new ArrayList<>();
+        private List<Long> deletedItemIds = new ArrayList<>();
+    }
+}
@@ -0,0 +1,81 @@
+
+package com.socksbox.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Durable side of the idempotency store in {@code idempotency_keys}. A key is claimed
+ * with a row that has no response yet, which is filled in once the request completed,
+ * so instances sharing the database see each other's requests, finished or running.
+ */
+@Repository
+public class IdempotencyJdbcRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Claims the key for a new request, {@code false} when it already has a row.
+     */
+    public boolean claim(String scope, String key, String requestHash) {
+        return jdbcTemplate.update(
+                "INSERT INTO idempotency_keys (scope, idem_key, request_hash, created_at) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (scope, idem_key) DO NOTHING",
+                scope, key, requestHash, Timestamp.valueOf(LocalDateTime.now())) == 1;
+    }
+
+    /**
+     * Claims a key whose request was claimed before {@code staleBefore} and never
+     * completed, the instance running it is assumed gone.
+     */
+    public boolean takeOver(String scope, String key, String requestHash, LocalDateTime staleBefore) {
+        return jdbcTemplate.update(
+                "UPDATE idempotency_keys SET created_at = ? " +
+                "WHERE scope = ? AND idem_key = ? AND request_hash = ? AND status IS NULL AND created_at < ?",
+                Timestamp.valueOf(LocalDateTime.now()), scope, key, requestHash, Timestamp.valueOf(staleBefore)) == 1;
+    }
+
+    public Optional<StoredResponse> find(String scope, String key) {
+        return jdbcTemplate.query(
+                        "SELECT request_hash, status, response_body FROM idempotency_keys WHERE scope = ? AND idem_key = ?",
+                        (rs, rowNum) -> new StoredResponse(rs.getString("request_hash"), (Integer) rs.getObject("status"),
+                                rs.getString("response_body")),
+                        scope, key)
+                .stream()
+                .findFirst();
+    }
+
+    public void complete(String scope, String key, int status, String responseBody) {
+        jdbcTemplate.update("UPDATE idempotency_keys SET status = ?, response_body = ? WHERE scope = ? AND idem_key = ?",
+                status, responseBody, scope, key);
+    }
+
+    public void release(String scope, String key) {
+        jdbcTemplate.update("DELETE FROM idempotency_keys WHERE scope = ? AND idem_key = ? AND status IS NULL",
+                scope, key);
+    }
+
+    public int deleteOlderThan(LocalDateTime before) {
+        return jdbcTemplate.update("DELETE FROM idempotency_keys WHERE created_at < ?", Timestamp.valueOf(before));
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class StoredResponse {
+        private String requestHash;
+
+        // Null while the request is still running
+        private Integer status;
+        private String responseBody;
+    }
+}
@@ -0,0 +1,232 @@
+
+package com.socksbox.repository;
+
+import com.socksbox.exception.ResourceNotFoundException;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stock changes as conditional, set-based updates on {@code products.inventory}. The
+ * database checks and applies each change in one statement, so concurrent checkouts
+ * cannot both sell the last unit the way reading the entity, subtracting and saving it
+ * back can. Rows are always updated in product id order, which keeps two checkouts of
+ * overlapping carts from deadlocking on each other.
+ * <p>
+ * The stock of a hot product can be split over rows of {@code inventory_shards}, in which
+ * case its {@code products.inventory} stays at 0 and checkouts take from one shard row
+ * each instead of all queueing on the product row.
+ */
+@Repository
+public class InventoryJdbcRepository {
+
+    private static final String DECREMENT =
+            "UPDATE products SET inventory = inventory - ? WHERE id = ? AND inventory >= ?";
+
+    private static final String INCREMENT =
+            "UPDATE products SET inventory = inventory + ? WHERE id = ?";
+
+    private static final String TAKE_FROM_SHARD =
+            "UPDATE inventory_shards SET quantity = quantity - ? " +
+            "WHERE product_id = ? AND shard = ? AND quantity >= ? RETURNING quantity";
+
+    private static final String LOCK_SHARDS =
+            "SELECT quantity FROM inventory_shards WHERE product_id = ? ORDER BY shard FOR UPDATE";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Takes the quantities off stock in one batch, each product only if it has enough
+     * left, and returns the products that did not. Those rows are left untouched, the
+     * others are decremented, so the caller's transaction must roll back when any
+     * product comes back.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public List<Long> decrementAll(Map<Long, Integer> quantities) {
+        List<Long> productIds = new ArrayList<>(new TreeMap<>(quantities).keySet());
+        List<Object[]> rows = new ArrayList<>(productIds.size());
+        for (Long productId : productIds) {
+            int quantity = quantities.get(productId);
+            rows.add(new Object[]{quantity, productId, quantity});
+        }
+
+        int[] counts = jdbcTemplate.batchUpdate(DECREMENT, rows);
+        List<Long> insufficient = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                insufficient.add(productIds.get(i));
+            }
+        }
+        return insufficient;
+    }
+
+    /**
+     * Puts the quantities back on stock in one batch.
+     */
+    @Transactional
+    public void incrementAll(Map<Long, Integer> quantities) {
+        List<Object[]> rows = new ArrayList<>(quantities.size());
+        for (Map.Entry<Long, Integer> entry : new TreeMap<>(quantities).entrySet()) {
+            rows.add(new Object[]{entry.getValue(), entry.getKey()});
+        }
+        jdbcTemplate.batchUpdate(INCREMENT, rows);
+    }
+
+    /**
+     * Every sharded product with the quantities of its shards, in shard order.
+     */
+    public Map<Long, int[]> findAllShards() {
+        Map<Long, List<Integer>> shards = new HashMap<>();
+        jdbcTemplate.query("SELECT product_id, quantity FROM inventory_shards ORDER BY product_id, shard",
+                rs -> {
+                    shards.computeIfAbsent(rs.getLong("product_id"), id -> new ArrayList<>()).add(rs.getInt("quantity"));
+                });
+        Map<Long, int[]> quantities = new HashMap<>();
+        shards.forEach((productId, shard) -> quantities.put(productId, shard.stream().mapToInt(Integer::intValue).toArray()));
+        return quantities;
+    }
+
+    /**
+     * Takes the quantity from one shard if it has enough, and returns what is left on it,
+     * or {@code null} when it had too little. A shard without enough stock is not locked.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Integer takeFromShard(Long productId, int shard, int quantity) {
+        List<Integer> left = jdbcTemplate.queryForList(TAKE_FROM_SHARD, Integer.class, quantity, productId, shard, quantity);
+        return left.isEmpty() ? null : left.get(0);
+    }
+
+    /**
+     * Takes the quantity from all shards of the product together, fullest first, with
+     * every shard row locked. Returns what was taken from and is left on each shard, or
+     * {@code null} without changing anything when the shards do not hold enough between them.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public ShardsTaken takeFromShards(Long productId, int quantity) {
+        int[] shards = lockShards(productId);
+        if (Arrays.stream(shards).asLongStream().sum() < quantity) {
+            return null;
+        }
+        Integer[] fullestFirst = new Integer[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            fullestFirst[i] = i;
+        }
+        Arrays.sort(fullestFirst, (a, b) -> Integer.compare(shards[b], shards[a]));
+        int[] taken = new int[shards.length];
+        int remaining = quantity;
+        for (int shard : fullestFirst) {
+            taken[shard] = Math.min(remaining, shards[shard]);
+            shards[shard] -= taken[shard];
+            remaining -= taken[shard];
+        }
+        writeShards(productId, shards);
+        return new ShardsTaken(taken, shards);
+    }
+
+    /**
+     * Puts the quantity back on one shard and returns its new quantity.
+     */
+    @Transactional
+    public int addToShard(Long productId, int shard, int quantity) {
+        return jdbcTemplate.queryForObject(
+                "UPDATE inventory_shards SET quantity = quantity + ? WHERE product_id = ? AND shard = ? RETURNING quantity",
+                Integer.class, quantity, productId, shard);
+    }
+
+    /**
+     * Evens out the stock over the product's shards and returns the new quantities.
+     */
+    @Transactional
+    public int[] rebalanceShards(Long productId) {
+        int[] shards = lockShards(productId);
+        int[] balanced = spread(Arrays.stream(shards).sum(), shards.length);
+        writeShards(productId, balanced);
+        return balanced;
+    }
+
+    /**
+     * Locks the product row and its shards and returns the stock they hold between them.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int lockStock(Long productId) {
+        List<Integer> inventory = jdbcTemplate.queryForList(
+                "SELECT inventory FROM products WHERE id = ? FOR UPDATE", Integer.class, productId);
+        if (inventory.isEmpty()) {
+            throw new ResourceNotFoundException("Product not found with id " + productId);
+        }
+        return inventory.get(0) + Arrays.stream(lockShards(productId)).sum();
+    }
+
+    /**
+     * Sets the stock of an unsharded product.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void setStock(Long productId, int stock) {
+        jdbcTemplate.update("UPDATE products SET inventory = ? WHERE id = ?", stock, productId);
+    }
+
+    /**
+     * Splits {@code stock} over {@code shardCount} shards, or puts it all on the product
+     * row for fewer than two. Returns the new shard quantities, empty when the product is
+     * no longer sharded. Callers lock the stock first.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int[] reshard(Long productId, int shardCount, int stock) {
+        jdbcTemplate.update("DELETE FROM inventory_shards WHERE product_id = ?", productId);
+        if (shardCount < 2) {
+            jdbcTemplate.update("UPDATE products SET inventory = ? WHERE id = ?", stock, productId);
+            return new int[0];
+        }
+        int[] shards = spread(stock, shardCount);
+        List<Object[]> rows = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            rows.add(new Object[]{productId, shard, shards[shard]});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO inventory_shards (product_id, shard, quantity) VALUES (?, ?, ?)", rows);
+        jdbcTemplate.update("UPDATE products SET inventory = 0 WHERE id = ?", productId);
+        return shards;
+    }
+
+    private int[] lockShards(Long productId) {
+        return jdbcTemplate.queryForList(LOCK_SHARDS, Integer.class, productId).stream()
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private void writeShards(Long productId, int[] shards) {
+        List<Object[]> rows = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            rows.add(new Object[]{shards[shard], productId, shard});
+        }
+        jdbcTemplate.batchUpdate("UPDATE inventory_shards SET quantity = ? WHERE product_id = ? AND shard = ?", rows);
+    }
+
+    private static int[] spread(int stock, int shardCount) {
+        int[] shards = new int[shardCount];
+        for (int shard = 0; shard < shardCount; shard++) {
+            shards[shard] = stock / shardCount + (shard < stock % shardCount ? 1 : 0);
+        }
+        return shards;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ShardsTaken {
+        private int[] taken;
+        private int[] left;
+    }
+}
@@ -0,0 +1,125 @@
+
+package com.socksbox.repository;
+
+import com.socksbox.dto.InventoryDriftDto;
+import com.socksbox.dto.InventoryMovementDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The append-only {@code inventory_movements} ledger and its {@code inventory_snapshots}.
+ * A snapshot holds a product's stock as of one movement, so the stock the ledger says a
+ * product has is its snapshot plus the movements after it, however long the ledger gets.
+ * <p>
+ * Movement ids come from a sequence and are handed out before commit, so a movement can
+ * become visible after one with a higher id. Snapshots only take in movements older than
+ * a lag that no stock-changing transaction runs for.
+ */
+@Repository
+public class InventoryLedgerRepository {
+
+    private static final String INSERT_MOVEMENT =
+            "INSERT INTO inventory_movements (product_id, type, quantity, order_id, created_at) VALUES (?, ?, ?, ?, ?)";
+
+    // Products no movement was recorded for, created before the ledger or outside the services
+    private static final String OPEN_UNTRACKED =
+            "INSERT INTO inventory_movements (product_id, type, quantity, created_at) " +
+            "SELECT p.id, 'OPENING', p.inventory + " +
+            "COALESCE((SELECT SUM(sh.quantity) FROM inventory_shards sh WHERE sh.product_id = p.id), 0), ? " +
+            "FROM products p WHERE NOT EXISTS (SELECT 1 FROM inventory_movements m WHERE m.product_id = p.id) " +
+            "AND NOT EXISTS (SELECT 1 FROM inventory_snapshots s WHERE s.product_id = p.id)";
+
+    // The cutoff is the id below the first movement inside the lag, every movement up to it
+    // is visible, so each snapshot takes in exactly the movements up to the cutoff
+    private static final String TAKE_SNAPSHOTS =
+            "WITH cutoff AS (SELECT COALESCE((SELECT MIN(id) - 1 FROM inventory_movements WHERE created_at >= ?), " +
+            "(SELECT MAX(id) FROM inventory_movements), 0) AS id) " +
+            "INSERT INTO inventory_snapshots (product_id, movement_id, quantity, taken_at) " +
+            "SELECT m.product_id, c.id, COALESCE(s.quantity, 0) + SUM(m.quantity), ? " +
+            "FROM inventory_movements m CROSS JOIN cutoff c LEFT JOIN inventory_snapshots s ON s.product_id = m.product_id " +
+            "WHERE m.id > COALESCE(s.movement_id, 0) AND m.id <= c.id " +
+            "GROUP BY m.product_id, s.quantity, c.id " +
+            "ON CONFLICT (product_id) DO UPDATE SET movement_id = EXCLUDED.movement_id, " +
+            "quantity = EXCLUDED.quantity, taken_at = EXCLUDED.taken_at";
+
+    private static final String LEDGER_STOCK =
+            "SELECT p.id AS product_id, COALESCE(s.quantity, 0) + COALESCE((SELECT SUM(m.quantity) " +
+            "FROM inventory_movements m WHERE m.product_id = p.id AND m.id > COALESCE(s.movement_id, 0)), 0) AS ledger_stock, " +
+            "p.inventory + COALESCE((SELECT SUM(sh.quantity) FROM inventory_shards sh WHERE sh.product_id = p.id), 0) AS stock " +
+            "FROM products p LEFT JOIN inventory_snapshots s ON s.product_id = p.id " +
+            "WHERE (s.product_id IS NOT NULL OR EXISTS (SELECT 1 FROM inventory_movements m WHERE m.product_id = p.id)) ";
+
+    private static final RowMapper<InventoryMovementDto> MOVEMENT_ROW_MAPPER = (rs, rowNum) -> new InventoryMovementDto(
+            rs.getLong("id"),
+            rs.getLong("product_id"),
+            InventoryMovementDto.Type.valueOf(rs.getString("type")),
+            rs.getInt("quantity"),
+            (Long) rs.getObject("order_id"),
+            rs.getTimestamp("created_at").toLocalDateTime());
+
+    private static final RowMapper<InventoryDriftDto> DRIFT_ROW_MAPPER = (rs, rowNum) -> new InventoryDriftDto(
+            rs.getLong("product_id"), rs.getLong("ledger_stock"), rs.getLong("stock"));
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Appends one movement per product as a single batch, leaving out zero changes. Runs in
+     * the transaction that changes the stock, so the ledger and the stock always agree.
+     */
+    public void append(InventoryMovementDto.Type type, Map<Long, Integer> changes, Long orderId) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>(changes.size());
+        changes.forEach((productId, quantity) -> {
+            if (quantity != 0) {
+                rows.add(new Object[]{productId, type.name(), quantity, orderId, now});
+            }
+        });
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_MOVEMENT, rows);
+        }
+    }
+
+    public int openUntracked() {
+        return jdbcTemplate.update(OPEN_UNTRACKED, Timestamp.valueOf(LocalDateTime.now()));
+    }
+
+    /**
+     * Moves the snapshot of every product up to the last movement before the first one
+     * recorded at or after {@code before}, in one statement. Returns the number of
+     * snapshots written.
+     */
+    public int takeSnapshots(LocalDateTime before) {
+        return jdbcTemplate.update(TAKE_SNAPSHOTS, Timestamp.valueOf(before), Timestamp.valueOf(LocalDateTime.now()));
+    }
+
+    public List<InventoryMovementDto> findMovements(Long productId, Long afterId, int limit) {
+        return jdbcTemplate.query(
+                "SELECT id, product_id, type, quantity, order_id, created_at FROM inventory_movements " +
+                "WHERE product_id = ? AND id > ? ORDER BY id LIMIT ?",
+                MOVEMENT_ROW_MAPPER, productId, afterId != null ? afterId : 0L, limit);
+    }
+
+    /**
+     * Products whose stock is not what their ledger replays to.
+     */
+    public List<InventoryDriftDto> findDrift() {
+        return jdbcTemplate.query("SELECT * FROM (" + LEDGER_STOCK + ") l WHERE l.ledger_stock <> l.stock ORDER BY l.product_id",
+                DRIFT_ROW_MAPPER);
+    }
+
+    public InventoryDriftDto findStock(Long productId) {
+        return jdbcTemplate.query(LEDGER_STOCK + "AND p.id = ?", DRIFT_ROW_MAPPER, productId)
+                .stream()
+                .findFirst()
+                .orElse(null);
+    }
+}
@@ -1,10 +1,19 @@
 
 package com.socksbox.repository;
 
+import com.socksbox.entity.Order;
 import com.socksbox.entity.OrderItem;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
+    // Rows of [productId, total quantity sold]
+    @Query("SELECT oi.product.id, SUM(oi.quantity) FROM OrderItem oi " +
+           "WHERE oi.order.status <> :excludedStatus GROUP BY oi.product.id")
+    List<Object[]> sumQuantityByProduct(@Param("excludedStatus") Order.Status excludedStatus);
 }
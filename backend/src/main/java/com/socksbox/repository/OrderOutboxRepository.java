@@ -0,0 +1,118 @@
+
+package com.socksbox.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The {@code order_outbox} table. Events are appended in the transaction that creates the
+ * order and claimed with {@code FOR UPDATE SKIP LOCKED}, so any number of dispatchers,
+ * on one instance or several, can work through the outbox without taking the same event.
+ * A claim is a lease: it moves the event out of sight until the lease ends, so no
+ * transaction has to stay open while the events are processed.
+ */
+@Repository
+public class OrderOutboxRepository {
+
+    private static final String COLUMNS = "id, type, order_id, user_id, payload, attempts";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void append(String type, Long orderId, Long userId, String payload) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.update(
+                "INSERT INTO order_outbox (type, order_id, user_id, payload, available_at, created_at) VALUES (?, ?, ?, ?, ?, ?)",
+                type, orderId, userId, payload, now, now);
+    }
+
+    /**
+     * Claims up to {@code limit} due events, oldest first, skipping events another
+     * dispatcher is claiming. They stay claimed until {@code leaseUntil}, an event whose
+     * dispatcher died before marking it is due again after that.
+     */
+    public List<OutboxEvent> claim(int limit, LocalDateTime leaseUntil) {
+        List<OutboxEvent> events = jdbcTemplate.query(
+                "UPDATE order_outbox SET available_at = ? WHERE id IN (SELECT id FROM order_outbox " +
+                "WHERE processed_at IS NULL AND available_at <= ? ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                "RETURNING " + COLUMNS,
+                (rs, rowNum) -> mapEvent(rs), Timestamp.valueOf(leaseUntil), Timestamp.valueOf(LocalDateTime.now()), limit);
+        // RETURNING does not keep the order of the subquery
+        events.sort(Comparator.comparing(OutboxEvent::getId));
+        return events;
+    }
+
+    /**
+     * Locks the user's row until the transaction ends, the gate checkout and the dispatcher
+     * take before touching the user's pending events. Cart writes do not wait for it, their
+     * foreign key only takes a key share lock.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void lockUser(Long userId) {
+        jdbcTemplate.queryForList("SELECT id FROM users WHERE id = ? FOR NO KEY UPDATE", Long.class, userId);
+    }
+
+    // Due or not, retrying events are pending as well
+    public List<OutboxEvent> findPending(Long userId, String type) {
+        return jdbcTemplate.query(
+                "SELECT " + COLUMNS + " FROM order_outbox WHERE user_id = ? AND type = ? AND processed_at IS NULL ORDER BY id",
+                (rs, rowNum) -> mapEvent(rs), userId, type);
+    }
+
+    public boolean isPending(Long id) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM order_outbox WHERE id = ? AND processed_at IS NULL)", Boolean.class, id));
+    }
+
+    public void markProcessed(Long id) {
+        jdbcTemplate.update("UPDATE order_outbox SET processed_at = ? WHERE id = ?",
+                Timestamp.valueOf(LocalDateTime.now()), id);
+    }
+
+    public void retryLater(Long id, String error, LocalDateTime availableAt) {
+        jdbcTemplate.update("UPDATE order_outbox SET attempts = attempts + 1, last_error = ?, available_at = ? WHERE id = ?",
+                error, Timestamp.valueOf(availableAt), id);
+    }
+
+    // Given up on, kept with its error until purged
+    public void markFailed(Long id, String error) {
+        jdbcTemplate.update(
+                "UPDATE order_outbox SET attempts = attempts + 1, last_error = ?, processed_at = ? WHERE id = ?",
+                error, Timestamp.valueOf(LocalDateTime.now()), id);
+    }
+
+    public int deleteProcessedBefore(LocalDateTime before) {
+        return jdbcTemplate.update("DELETE FROM order_outbox WHERE processed_at < ?", Timestamp.valueOf(before));
+    }
+
+    private static OutboxEvent mapEvent(ResultSet rs) throws SQLException {
+        return new OutboxEvent(rs.getLong("id"), rs.getString("type"), rs.getLong("order_id"), rs.getLong("user_id"),
+                rs.getString("payload"), rs.getInt("attempts"));
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class OutboxEvent {
+        private Long id;
+        private String type;
+        private Long orderId;
+        private Long userId;
+        private String payload;
+        private int attempts;
+    }
+}
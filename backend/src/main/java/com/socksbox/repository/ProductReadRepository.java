@@ -0,0 +1,141 @@
+
+package com.socksbox.repository;
+
+import com.socksbox.dto.ProductDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Read-only projection of products straight into {@link ProductDto}s.
+ * The category and brand names are joined in and the three element collection
+ * tables are folded into arrays, so any product list costs exactly one query
+ * instead of the 1 + 5N lazy loads of going through the {@code Product} entity.
+ */
+@Repository
+public class ProductReadRepository {
+
+    private static final String SELECT_PRODUCTS =
+            "SELECT p.id, p.name, p.description, p.price, " +
+            "p.inventory + COALESCE((SELECT SUM(s.quantity) FROM inventory_shards s WHERE s.product_id = p.id), 0) " +
+            "AS inventory, p.featured, " +
+            "p.category_id, c.name AS category_name, p.brand_id, b.name AS brand_name, " +
+            "ARRAY(SELECT pi.image_url FROM product_images pi WHERE pi.product_id = p.id ORDER BY pi.sort_order) AS images, " +
+            "ARRAY(SELECT pc.color FROM product_colors pc WHERE pc.product_id = p.id ORDER BY pc.sort_order) AS colors, " +
+            "ARRAY(SELECT ps.size FROM product_sizes ps WHERE ps.product_id = p.id ORDER BY ps.sort_order) AS sizes " +
+            "FROM products p " +
+            "LEFT JOIN categories c ON c.id = p.category_id " +
+            "LEFT JOIN brands b ON b.id = p.brand_id ";
+
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private static final RowMapper<ProductDto> PRODUCT_ROW_MAPPER = ProductReadRepository::mapRow;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public List<ProductDto> findAll() {
+        return jdbcTemplate.query(SELECT_PRODUCTS + "ORDER BY p.id", PRODUCT_ROW_MAPPER);
+    }
+
+    public Optional<ProductDto> findById(Long id) {
+        return jdbcTemplate.query(SELECT_PRODUCTS + "WHERE p.id = ?", PRODUCT_ROW_MAPPER, id)
+                .stream()
+                .findFirst();
+    }
+
+    public List<ProductDto> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_PRODUCTS + "WHERE p.id = ANY(?) ORDER BY p.id");
+            ps.setArray(1, con.createArrayOf("bigint", ids.toArray()));
+            return ps;
+        }, PRODUCT_ROW_MAPPER);
+    }
+
+    public List<ProductDto> findByFeatured(boolean featured) {
+        return jdbcTemplate.query(SELECT_PRODUCTS + "WHERE p.featured = ? ORDER BY p.id", PRODUCT_ROW_MAPPER, featured);
+    }
+
+    public List<ProductDto> findByCategoryId(Long categoryId) {
+        return jdbcTemplate.query(SELECT_PRODUCTS + "WHERE p.category_id = ? ORDER BY p.id", PRODUCT_ROW_MAPPER, categoryId);
+    }
+
+    public List<ProductDto> findByBrandId(Long brandId) {
+        return jdbcTemplate.query(SELECT_PRODUCTS + "WHERE p.brand_id = ? ORDER BY p.id", PRODUCT_ROW_MAPPER, brandId);
+    }
+
+    public List<ProductDto> findPageAfterId(long afterId, int limit) {
+        return jdbcTemplate.query(SELECT_PRODUCTS + "WHERE p.id > ? ORDER BY p.id LIMIT ?",
+                PRODUCT_ROW_MAPPER, afterId, limit);
+    }
+
+    public List<ProductDto> findPricePageAfter(BigDecimal afterPrice, long afterId, int limit) {
+        return jdbcTemplate.query(SELECT_PRODUCTS + "WHERE (p.price, p.id) > (?, ?) ORDER BY p.price, p.id LIMIT ?",
+                PRODUCT_ROW_MAPPER, afterPrice, afterId, limit);
+    }
+
+    /**
+     * Walks every product in id order with a forward-only cursor. Must run inside a
+     * transaction, otherwise the PostgreSQL driver ignores the fetch size and buffers
+     * the whole result set.
+     */
+    public void streamAll(Consumer<ProductDto> consumer) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_PRODUCTS + "ORDER BY p.id");
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(mapRow(rs, rs.getRow())));
+    }
+
+    private static ProductDto mapRow(ResultSet rs, int rowNum) throws SQLException {
+        ProductDto dto = new ProductDto();
+        dto.setId(rs.getLong("id"));
+        dto.setName(rs.getString("name"));
+        dto.setDescription(rs.getString("description"));
+        dto.setPrice(rs.getBigDecimal("price"));
+        dto.setInventory(rs.getInt("inventory"));
+        dto.setFeatured(rs.getBoolean("featured"));
+        dto.setInStock(dto.getInventory() > 0);
+        dto.setCategoryId(rs.getObject("category_id", Long.class));
+        dto.setCategoryName(rs.getString("category_name"));
+        dto.setBrandId(rs.getObject("brand_id", Long.class));
+        dto.setBrandName(rs.getString("brand_name"));
+        dto.setImages(toList(rs.getArray("images")));
+        dto.setColors(toList(rs.getArray("colors")));
+        dto.setSizes(toList(rs.getArray("sizes")));
+
+        if (!dto.getImages().isEmpty()) {
+            dto.setImageUrl(dto.getImages().get(0));
+        }
+
+        return dto;
+    }
+
+    private static List<String> toList(Array array) throws SQLException {
+        if (array == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return new ArrayList<>(Arrays.asList((String[]) array.getArray()));
+        } finally {
+            array.free();
+        }
+    }
+}
@@ -3,11 +3,8 @@ package com.socksbox.repository;
 
 import com.socksbox.entity.Product;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.math.BigDecimal;
 import java.util.List;
 
 @Repository
@@ -15,14 +12,4 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     List<Product> findByFeatured(Boolean featured);
     List<Product> findByCategoryId(Long categoryId);
     List<Product> findByBrandId(Long brandId);
-    
-    @Query("SELECT p FROM Product p WHERE " +
-           "(:categoryId IS NULL OR p.category.id = :categoryId) AND " +
-           "(:brandId IS NULL OR p.brand.id = :brandId) AND " +
-           "(:minPrice IS NULL OR p.price >= :minPrice) AND " +
-           "(:maxPrice IS NULL OR p.price <= :maxPrice)")
-    List<Product> findByFilters(@Param("categoryId") Long categoryId,
-                               @Param("brandId") Long brandId,
-                               @Param("minPrice") BigDecimal minPrice,
-                               @Param("maxPrice") BigDecimal maxPrice);
 }
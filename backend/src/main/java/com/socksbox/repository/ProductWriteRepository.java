@@ -0,0 +1,79 @@
+
+package com.socksbox.repository;
+
+import com.socksbox.dto.InventoryMovementDto;
+import com.socksbox.dto.ProductDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batched JDBC inserts for bulk product loads. {@code products.id} is an identity
+ * column, which through JPA means one round trip per row to read the generated key,
+ * so ids are taken from the column's sequence up front in a single query and the
+ * products and their collection rows then go out as plain JDBC batches.
+ */
+@Repository
+public class ProductWriteRepository {
+
+    private static final String ALLOCATE_IDS =
+            "SELECT nextval(pg_get_serial_sequence('products', 'id')) FROM generate_series(1, ?)";
+
+    private static final String INSERT_PRODUCT =
+            "INSERT INTO products (id, name, description, price, inventory, featured, category_id, brand_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private InventoryLedgerRepository inventoryLedgerRepository;
+
+    /**
+     * Inserts the products in one transaction and sets their generated ids. Their stock is
+     * recorded in the inventory ledger as imported.
+     */
+    @Transactional
+    public void insertAll(List<ProductDto> products) {
+        if (products.isEmpty()) {
+            return;
+        }
+
+        List<Long> ids = jdbcTemplate.queryForList(ALLOCATE_IDS, Long.class, products.size());
+        List<Object[]> productRows = new ArrayList<>(products.size());
+        List<Object[]> imageRows = new ArrayList<>();
+        List<Object[]> colorRows = new ArrayList<>();
+        List<Object[]> sizeRows = new ArrayList<>();
+        Map<Long, Integer> stock = new HashMap<>();
+
+        for (int i = 0; i < products.size(); i++) {
+            ProductDto product = products.get(i);
+            Long id = ids.get(i);
+            product.setId(id);
+            stock.put(id, product.getInventory());
+            productRows.add(new Object[]{id, product.getName(), product.getDescription(), product.getPrice(),
+                    product.getInventory(), product.getFeatured(), product.getCategoryId(), product.getBrandId()});
+            for (int order = 0; order < product.getImages().size(); order++) {
+                imageRows.add(new Object[]{id, order, product.getImages().get(order)});
+            }
+            for (int order = 0; order < product.getColors().size(); order++) {
+                colorRows.add(new Object[]{id, order, product.getColors().get(order)});
+            }
+            for (int order = 0; order < product.getSizes().size(); order++) {
+                sizeRows.add(new Object[]{id, order, product.getSizes().get(order)});
+            }
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_PRODUCT, productRows);
+        jdbcTemplate.batchUpdate("INSERT INTO product_images (product_id, sort_order, image_url) VALUES (?, ?, ?)", imageRows);
+        jdbcTemplate.batchUpdate("INSERT INTO product_colors (product_id, sort_order, color) VALUES (?, ?, ?)", colorRows);
+        jdbcTemplate.batchUpdate("INSERT INTO product_sizes (product_id, sort_order, size) VALUES (?, ?, ?)", sizeRows);
+        inventoryLedgerRepository.append(InventoryMovementDto.Type.IMPORT, stock, null);
+    }
+}
@@ -3,9 +3,11 @@ package com.socksbox.service;
 
 import com.socksbox.dto.BrandDto;
 import com.socksbox.entity.Brand;
+import com.socksbox.event.CatalogChangedEvent;
 import com.socksbox.exception.ResourceNotFoundException;
 import com.socksbox.repository.BrandRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -17,6 +19,15 @@ public class BrandService {
     @Autowired
     private BrandRepository brandRepository;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private JsonResponseCache jsonResponseCache;
+
+    @Autowired
+    private CatalogVersion catalogVersion;
+
     public List<BrandDto> getAllBrands() {
         return brandRepository.findAll().stream()
                 .map(this::convertToDto)
@@ -47,6 +58,9 @@ public class BrandService {
         brand.setFeatured(brandDto.getFeatured());
         
         Brand savedBrand = brandRepository.save(brand);
+        // No product changed, only the brand list itself
+        jsonResponseCache.invalidate(JsonResponseCache.BRANDS);
+        catalogVersion.bump();
         return convertToDto(savedBrand);
     }
 
@@ -66,6 +80,8 @@ public class BrandService {
         brand.setFeatured(brandDto.getFeatured());
         
         Brand updatedBrand = brandRepository.save(brand);
+        // Products carry the brand name, so every product listing may have changed
+        eventPublisher.publishEvent(CatalogChangedEvent.all());
         return convertToDto(updatedBrand);
     }
 
@@ -74,6 +90,7 @@ public class BrandService {
             throw new ResourceNotFoundException("Brand not found with id " + id);
         }
         brandRepository.deleteById(id);
+        eventPublisher.publishEvent(CatalogChangedEvent.all());
     }
 
     private BrandDto convertToDto(Brand brand) {
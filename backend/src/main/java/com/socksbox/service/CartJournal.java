@@ -0,0 +1,98 @@
+
+package com.socksbox.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only local journal for {@link CartStore}. Every cart mutation is appended as
+ * one line before it is acknowledged, so carts that were changed in memory but not yet
+ * flushed can be replayed after a crash. The journal is split into segments: a flush
+ * rotates to a new segment and deletes the old ones once their carts are in the database.
+ */
+class CartJournal {
+
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final boolean fsync;
+    private final List<Path> segments = new ArrayList<>();
+    private FileChannel current;
+    private long sequence;
+
+    CartJournal(Path directory, boolean fsync) {
+        this.directory = directory;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Segments left over from a previous run, oldest first. Call before the first append.
+     */
+    synchronized List<Path> recoverSegments() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        return new ArrayList<>(segments);
+    }
+
+    synchronized void append(byte[] entry) {
+        try {
+            if (current == null) {
+                open();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length + 1).put(entry).put((byte) '\n').flip();
+            while (buffer.hasRemaining()) {
+                current.write(buffer);
+            }
+            if (fsync) {
+                current.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write cart journal", e);
+        }
+    }
+
+    /**
+     * Closes the current segment and returns every segment that is no longer written to.
+     */
+    synchronized List<Path> rotate() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        return new ArrayList<>(segments);
+    }
+
+    synchronized void delete(List<Path> flushed) throws IOException {
+        for (Path segment : flushed) {
+            Files.deleteIfExists(segment);
+            segments.remove(segment);
+        }
+    }
+
+    synchronized void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        // Zero padded so segments sort in the order they were written
+        Path segment = directory.resolve(String.format("cart-%015d-%06d%s", System.currentTimeMillis(), sequence++, SUFFIX));
+        current = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segments.add(segment);
+    }
+}
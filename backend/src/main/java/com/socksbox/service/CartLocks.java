@@ -0,0 +1,109 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.CartLockStatsDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes cart operations per user inside this instance. Users are hashed onto a
+ * fixed set of fair locks, so a double click or a second tab waits for the first
+ * request instead of racing it, and different users almost never wait for each other.
+ * Counts how often and how long callers had to wait.
+ */
+@Component
+public class CartLocks {
+
+    @Value("${cart.lock.stripes:256}")
+    private int stripeCount;
+
+    @Value("${cart.lock.timeout-ms:5000}")
+    private long timeoutMillis;
+
+    private ReentrantLock[] stripes;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        // Power of two so a stripe is picked with a mask
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock(true);
+        }
+    }
+
+    /**
+     * Runs {@code action} while holding the user's lock.
+     */
+    public <T> T withLock(Long userId, Supplier<T> action) {
+        ReentrantLock lock = lock(userId);
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void withLock(Long userId, Runnable action) {
+        ReentrantLock lock = lock(userId);
+        try {
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CartLockStatsDto getStats() {
+        long acquisitions = acquired.sum();
+        long contentions = contended.sum();
+        return new CartLockStatsDto(stripes.length, acquisitions, contentions, timedOut.sum(),
+                acquisitions == 0 ? 0 : (double) contentions / acquisitions,
+                TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+    }
+
+    private ReentrantLock lock(Long userId) {
+        ReentrantLock lock = stripe(userId);
+        if (lock.tryLock()) {
+            acquired.increment();
+            return lock;
+        }
+
+        contended.increment();
+        long start = System.nanoTime();
+        boolean locked;
+        try {
+            locked = lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the cart");
+        }
+        long waited = System.nanoTime() - start;
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (!locked) {
+            timedOut.increment();
+            throw new RuntimeException("The cart is busy, please try again");
+        }
+        acquired.increment();
+        return lock;
+    }
+
+    private ReentrantLock stripe(Long userId) {
+        long hash = userId * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash ^ (hash >>> 32)) & (stripes.length - 1)];
+    }
+}
@@ -0,0 +1,191 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.CartDto;
+import com.socksbox.dto.CartItemDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Latest {@link CartDto} per user, so polling the cart is a map lookup. Cart changes
+ * put the cart they just built, which gets a new version, and every line remembers
+ * the version it last changed in. A client that sends the version it holds gets
+ * nothing back when it is current, or only the lines changed and removed since.
+ * <p>
+ * Versions come from one counter seeded with the start time, so a version handed
+ * out before a restart or an eviction never matches a cart loaded afterwards.
+ * Invalidation bumps a generation counter like {@link JsonResponseCache} does, so a
+ * slow load cannot put a stale cart back.
+ */
+@Component
+public class CartReadCache {
+
+    // Removed lines remembered per cart, clients further behind get the whole cart
+    private static final int MAX_REMOVED_LINES = 100;
+
+    @Value("${cart.cache.idle-evict-ms:1800000}")
+    private long idleEvictMillis;
+
+    private final Map<Long, CachedCart> entries = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final AtomicLong generation = new AtomicLong();
+
+    public CachedCart get(Long userId, Supplier<CartDto> loader) {
+        CachedCart cached = entries.get(userId);
+        if (cached != null) {
+            cached.lastRead = System.currentTimeMillis();
+            return cached;
+        }
+
+        long loadedAt = generation.get();
+        CartDto cart = loader.get();
+        long version = versions.incrementAndGet();
+        CachedCart loaded = new CachedCart(versioned(cart, version), allAt(cart, version), new LinkedHashMap<>(), version);
+        synchronized (this) {
+            if (generation.get() == loadedAt) {
+                CachedCart existing = entries.putIfAbsent(userId, loaded);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Stores the cart a change just produced and returns it with its version. Callers
+     * hold the user's cart lock, so puts for one user never overtake each other.
+     */
+    public CartDto put(Long userId, CartDto cart) {
+        CachedCart previous = entries.get(userId);
+        if (previous != null && previous.sameLines(cart)) {
+            return previous.cart;
+        }
+
+        long version = versions.incrementAndGet();
+        Map<Long, Long> lineVersions = new HashMap<>();
+        LinkedHashMap<Long, Long> removedLines = new LinkedHashMap<>();
+        long oldest = version;
+        if (previous != null) {
+            oldest = previous.oldest;
+            removedLines.putAll(previous.removedLines);
+            Map<Long, CartItemDto> previousLines = new HashMap<>();
+            for (CartItemDto item : previous.cart.getItems()) {
+                previousLines.put(item.getId(), item);
+            }
+            for (CartItemDto item : cart.getItems()) {
+                CartItemDto before = previousLines.remove(item.getId());
+                lineVersions.put(item.getId(), item.equals(before) ? previous.lineVersions.get(item.getId()) : version);
+            }
+            for (Long removedId : previousLines.keySet()) {
+                removedLines.put(removedId, version);
+            }
+            // Clients older than a forgotten removal can only be sent the whole cart
+            Iterator<Map.Entry<Long, Long>> removed = removedLines.entrySet().iterator();
+            while (removedLines.size() > MAX_REMOVED_LINES) {
+                oldest = Math.max(oldest, removed.next().getValue());
+                removed.remove();
+            }
+        } else {
+            lineVersions = allAt(cart, version);
+        }
+
+        CachedCart updated = new CachedCart(versioned(cart, version), lineVersions, removedLines, oldest);
+        entries.put(userId, updated);
+        return updated.cart;
+    }
+
+    public synchronized void invalidate(Long userId) {
+        generation.incrementAndGet();
+        entries.remove(userId);
+    }
+
+    @Scheduled(fixedDelayString = "${cart.cache.evict-interval-ms:60000}")
+    public void evictIdle() {
+        long idleSince = System.currentTimeMillis() - idleEvictMillis;
+        entries.forEach((userId, cached) -> {
+            if (cached.lastRead < idleSince) {
+                entries.remove(userId, cached);
+            }
+        });
+    }
+
+    private static Map<Long, Long> allAt(CartDto cart, long version) {
+        Map<Long, Long> lineVersions = new HashMap<>();
+        for (CartItemDto item : cart.getItems()) {
+            lineVersions.put(item.getId(), version);
+        }
+        return lineVersions;
+    }
+
+    private static CartDto versioned(CartDto cart, long version) {
+        cart.setVersion(version);
+        cart.setDelta(false);
+        return cart;
+    }
+
+    public static final class CachedCart {
+
+        private final CartDto cart;
+        private final Map<Long, Long> lineVersions;
+        private final LinkedHashMap<Long, Long> removedLines;
+        // Deltas can be computed from this version on
+        private final long oldest;
+        private volatile long lastRead = System.currentTimeMillis();
+
+        private CachedCart(CartDto cart, Map<Long, Long> lineVersions, LinkedHashMap<Long, Long> removedLines,
+                           long oldest) {
+            this.cart = cart;
+            this.lineVersions = lineVersions;
+            this.removedLines = removedLines;
+            this.oldest = oldest;
+        }
+
+        public CartDto getCart() {
+            return cart;
+        }
+
+        /**
+         * What a client holding {@code since} needs: {@code null} when it is current, the
+         * changed and removed lines when the change is still known, otherwise the whole cart.
+         */
+        public CartDto changesSince(Long since) {
+            if (since == null || since < oldest || since > cart.getVersion()) {
+                return cart;
+            }
+            if (since.equals(cart.getVersion())) {
+                return null;
+            }
+
+            List<CartItemDto> changed = new ArrayList<>();
+            for (CartItemDto item : cart.getItems()) {
+                if (lineVersions.get(item.getId()) > since) {
+                    changed.add(item);
+                }
+            }
+            List<Long> removed = new ArrayList<>();
+            for (Map.Entry<Long, Long> entry : removedLines.entrySet()) {
+                if (entry.getValue() > since) {
+                    removed.add(entry.getKey());
+                }
+            }
+            return new CartDto(cart.getId(), cart.getUserId(), changed, cart.getTotalAmount(), cart.getItemCount(),
+                    cart.getVersion(), true, removed);
+        }
+
+        private boolean sameLines(CartDto other) {
+            return cart.getItems().equals(other.getItems());
+        }
+    }
+}
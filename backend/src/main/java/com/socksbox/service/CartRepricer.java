@@ -0,0 +1,89 @@
+
+package com.socksbox.service;
+
+import com.socksbox.event.CatalogChangedEvent;
+import com.socksbox.repository.CartJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the price snapshot in cart lines in step with the catalog. When a product's
+ * price changes, the lines that hold an older price are updated in one statement, the
+ * cached carts of their owners are dropped, and carts held in memory by
+ * {@link CartStore} are repriced there so a later flush does not write the old price
+ * back. Catalog changes that leave prices alone are ignored.
+ */
+@Component
+public class CartRepricer {
+
+    private static final Logger log = LoggerFactory.getLogger(CartRepricer.class);
+
+    @Autowired
+    private CartJdbcRepository cartJdbcRepository;
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private CartReadCache cartReadCache;
+
+    @Autowired
+    private CatalogSnapshot catalogSnapshot;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate newTransaction;
+
+    @PostConstruct
+    void init() {
+        // The publisher's transaction is over by the time this listener runs
+        newTransaction = new TransactionTemplate(transactionManager);
+        newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    // Default order, after CatalogSnapshot has the new prices
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        if (!event.isPriceChange()) {
+            return;
+        }
+        Set<Long> productIds = event.getProductIds();
+        // Committed before the caches are dropped, so a reload cannot pick up the old prices
+        Set<Long> repricedUsers = new HashSet<>(
+                newTransaction.execute(status -> cartJdbcRepository.repriceItems(productIds)));
+        for (Long userId : repricedUsers) {
+            cartReadCache.invalidate(userId);
+        }
+
+        CatalogSnapshot.View catalog = catalogSnapshot.current();
+        List<Long> staleInMemory = cartStore.usersWithItems(item ->
+                (event.isFullReload() || productIds.contains(item.getProductId()))
+                        && catalog.getById(item.getProductId())
+                                .map(product -> product.getPrice().compareTo(item.getPrice()) != 0)
+                                .orElse(false));
+        for (Long userId : staleInMemory) {
+            cartService.repriceCart(userId);
+        }
+
+        repricedUsers.addAll(staleInMemory);
+        if (!repricedUsers.isEmpty()) {
+            log.info("Repriced the carts of {} users after a catalog change", repricedUsers.size());
+        }
+    }
+}
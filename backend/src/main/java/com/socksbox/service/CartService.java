@@ -1,168 +1,318 @@
-
 package com.socksbox.service;
 
 import com.socksbox.dto.CartDto;
 import com.socksbox.dto.CartItemDto;
-import com.socksbox.entity.Cart;
-import com.socksbox.entity.CartItem;
-import com.socksbox.entity.Product;
-import com.socksbox.entity.User;
+import com.socksbox.dto.CartOperationDto;
+import com.socksbox.dto.ProductDto;
+import com.socksbox.event.CatalogChangedEvent;
 import com.socksbox.exception.ResourceNotFoundException;
-import com.socksbox.repository.CartItemRepository;
-import com.socksbox.repository.CartRepository;
-import com.socksbox.repository.ProductRepository;
-import com.socksbox.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-
-import java.time.LocalDateTime;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
 @Service
 public class CartService {
 
     @Autowired
-    private CartRepository cartRepository;
+    private CartStore cartStore;
 
     @Autowired
-    private CartItemRepository cartItemRepository;
+    private CatalogSnapshot catalogSnapshot;
 
     @Autowired
-    private ProductRepository productRepository;
+    private CartReadCache cartReadCache;
 
     @Autowired
-    private UserRepository userRepository;
+    private GuestCartTokens guestCartTokens;
 
     public CartDto getCartByUserId(Long userId) {
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseGet(() -> createCartForUser(userId));
-        return convertToDto(cart);
+        return cachedCart(userId).getCart();
     }
 
-    @Transactional
-    public CartDto addItemToCart(Long userId, CartItemDto cartItemDto) {
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseGet(() -> createCartForUser(userId));
+    /**
+     * The cart as seen by a client holding version {@code since}: {@code null} when
+     * nothing changed, otherwise only the changed lines when possible.
+     */
+    public CartDto getCartChanges(Long userId, Long since) {
+        return cachedCart(userId).changesSince(since);
+    }
 
-        Product product = productRepository.findById(cartItemDto.getProductId())
+    public CartDto addItemToCart(Long userId, CartItemDto cartItemDto) {
+        ProductDto product = catalogSnapshot.current().getById(cartItemDto.getProductId())
                 .orElseThrow(() -> new ResourceNotFoundException("Product not found with id " + cartItemDto.getProductId()));
 
-        // Check if item already exists in cart
-        Optional<CartItem> existingItem = cartItemRepository.findByCartIdAndProductIdAndColorAndSize(
-                cart.getId(), cartItemDto.getProductId(), cartItemDto.getColor(), cartItemDto.getSize());
-
-        if (existingItem.isPresent()) {
-            // Update quantity
-            CartItem item = existingItem.get();
-            item.setQuantity(item.getQuantity() + cartItemDto.getQuantity());
-            cartItemRepository.save(item);
-        } else {
-            // Create new cart item
-            CartItem cartItem = new CartItem();
-            cartItem.setCart(cart);
-            cartItem.setProduct(product);
-            cartItem.setQuantity(cartItemDto.getQuantity());
-            cartItem.setPrice(product.getPrice());
-            cartItem.setColor(cartItemDto.getColor());
-            cartItem.setSize(cartItemDto.getSize());
-            cartItemRepository.save(cartItem);
-        }
+        return cartStore.mutate(userId,
+                cart -> addItem(cart, product, cartItemDto.getQuantity(), cartItemDto.getColor(), cartItemDto.getSize(),
+                        cartStore::nextItemId),
+                this::cacheCart);
+    }
 
-        cart.setUpdatedAt(LocalDateTime.now());
-        cartRepository.save(cart);
+    public CartDto updateCartItemQuantity(Long userId, Long itemId, Integer quantity) {
+        return cartStore.mutate(userId, cart -> {
+            CartItemDto cartItem = requireItem(cart, itemId);
+            cartItem.setQuantity(quantity);
+            cart.putItem(cartItem);
+        }, this::cacheCart);
+    }
 
-        return convertToDto(cart);
+    public CartDto removeItemFromCart(Long userId, Long itemId) {
+        return cartStore.mutate(userId, cart -> {
+            requireItem(cart, itemId);
+            cart.removeItem(itemId);
+        }, this::cacheCart);
     }
 
-    @Transactional
-    public CartDto updateCartItemQuantity(Long userId, Long itemId, Integer quantity) {
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user " + userId));
+    public CartDto clearCart(Long userId) {
+        return cartStore.mutate(userId, CartStore.CartState::clear, this::cacheCart);
+    }
 
-        CartItem cartItem = cartItemRepository.findById(itemId)
-                .orElseThrow(() -> new ResourceNotFoundException("Cart item not found with id " + itemId));
+    /**
+     * Takes the lines an order was made from off the cart. A line the shopper added to
+     * since keeps the difference under a new id, and lines already gone are skipped, so
+     * repeating this for the same order changes nothing.
+     */
+    public CartDto removeOrderedItems(Long userId, Map<Long, Integer> orderedQuantities) {
+        return cartStore.mutate(userId, cart -> {
+            List<CartItemDto> grown = new ArrayList<>();
+            orderedQuantities.forEach((itemId, ordered) -> {
+                CartItemDto item = cart.getItem(itemId);
+                if (item != null && item.getQuantity() > ordered) {
+                    grown.add(item);
+                }
+            });
+            // Ids before any change, nothing may fail half way through applying
+            Iterator<Long> newItemIds = grown.isEmpty()
+                    ? null : cartStore.nextItemIds(grown.size()).iterator();
+
+            orderedQuantities.keySet().forEach(cart::removeItem);
+            for (CartItemDto item : grown) {
+                cart.putItem(new CartItemDto(newItemIds.next(), item.getProductId(), item.getProductName(),
+                        item.getQuantity() - orderedQuantities.get(item.getId()), item.getPrice(), item.getColor(),
+                        item.getSize(), item.getImageUrl()));
+            }
+        }, this::cacheCart);
+    }
 
-        if (!cartItem.getCart().getId().equals(cart.getId())) {
-            throw new RuntimeException("Cart item does not belong to user's cart");
+    /**
+     * Applies a list of operations as one cart change: either all of them are applied, in
+     * order, or none is when any of them is invalid.
+     */
+    public CartDto applyOperations(Long userId, List<CartOperationDto> operations) {
+        // Resolve every product up front, the catalog snapshot makes this free
+        Map<Long, ProductDto> products = new HashMap<>();
+        int adds = 0;
+        for (CartOperationDto operation : operations) {
+            if (operation.getType() == CartOperationDto.Type.ADD) {
+                adds++;
+                if (operation.getProductId() == null || operation.getQuantity() == null || operation.getQuantity() < 1) {
+                    throw new RuntimeException("Add operations need a product and a quantity of at least 1");
+                }
+                ProductDto product = catalogSnapshot.current().getById(operation.getProductId())
+                        .orElseThrow(() -> new ResourceNotFoundException("Product not found with id " + operation.getProductId()));
+                products.put(product.getId(), product);
+            } else if (operation.getItemId() == null
+                    || (operation.getType() == CartOperationDto.Type.UPDATE && operation.getQuantity() == null)) {
+                throw new RuntimeException("Update and remove operations need an item id, updates also a quantity");
+            }
         }
 
-        cartItem.setQuantity(quantity);
-        cartItemRepository.save(cartItem);
+        // Reserve ids for new lines now, nothing may fail half way through applying
+        Iterator<Long> newItemIds = cartStore.nextItemIds(adds).iterator();
+
+        return cartStore.mutate(userId, cart -> {
+            // Check every item reference before changing anything
+            Set<Long> itemIds = new HashSet<>();
+            for (CartItemDto item : cart.getItems()) {
+                itemIds.add(item.getId());
+            }
+            for (CartOperationDto operation : operations) {
+                if (operation.getType() == CartOperationDto.Type.REMOVE) {
+                    if (!itemIds.remove(operation.getItemId())) {
+                        throw new ResourceNotFoundException("Cart item not found with id " + operation.getItemId());
+                    }
+                } else if (operation.getType() == CartOperationDto.Type.UPDATE && !itemIds.contains(operation.getItemId())) {
+                    throw new ResourceNotFoundException("Cart item not found with id " + operation.getItemId());
+                }
+            }
+
+            for (CartOperationDto operation : operations) {
+                switch (operation.getType()) {
+                    case ADD -> addItem(cart, products.get(operation.getProductId()), operation.getQuantity(),
+                            operation.getColor(), operation.getSize(), newItemIds::next);
+                    case UPDATE -> {
+                        CartItemDto cartItem = cart.getItem(operation.getItemId());
+                        cartItem.setQuantity(operation.getQuantity());
+                        cart.putItem(cartItem);
+                    }
+                    case REMOVE -> cart.removeItem(operation.getItemId());
+                }
+            }
+        }, this::cacheCart);
+    }
 
-        cart.setUpdatedAt(LocalDateTime.now());
-        cartRepository.save(cart);
+    /**
+     * Merges the lines of a guest cart token into the user's cart as one change. A line
+     * already in the cart keeps the larger of both quantities, so merging the same token
+     * again, e.g. on a retried login, changes nothing. Lines of products no longer in the
+     * catalog are left out.
+     */
+    public CartDto mergeGuestCart(Long userId, String guestCartToken) {
+        CatalogSnapshot.View catalog = catalogSnapshot.current();
+        List<CartItemDto> lines = new ArrayList<>();
+        for (CartItemDto line : guestCartTokens.decode(guestCartToken)) {
+            if (line.getQuantity() != null && line.getQuantity() > 0
+                    && catalog.getById(line.getProductId()).isPresent()) {
+                lines.add(line);
+            }
+        }
+        if (lines.isEmpty()) {
+            return getCartByUserId(userId);
+        }
 
-        return convertToDto(cart);
+        // Reserve ids for new lines now, nothing may fail half way through applying
+        Iterator<Long> newItemIds = cartStore.nextItemIds(lines.size()).iterator();
+
+        return cartStore.mutate(userId, cart -> {
+            for (CartItemDto line : lines) {
+                CartItemDto existingItem = cart.findItem(line.getProductId(), line.getColor(), line.getSize());
+                if (existingItem == null) {
+                    addItem(cart, catalog.getById(line.getProductId()).get(), line.getQuantity(), line.getColor(),
+                            line.getSize(), newItemIds::next);
+                } else if (existingItem.getQuantity() < line.getQuantity()) {
+                    existingItem.setQuantity(line.getQuantity());
+                    cart.putItem(existingItem);
+                }
+            }
+        }, this::cacheCart);
     }
 
-    @Transactional
-    public CartDto removeItemFromCart(Long userId, Long itemId) {
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user " + userId));
-
-        CartItem cartItem = cartItemRepository.findById(itemId)
-                .orElseThrow(() -> new ResourceNotFoundException("Cart item not found with id " + itemId));
+    /**
+     * Brings the prices of the user's cart lines up to date with the catalog.
+     */
+    public CartDto repriceCart(Long userId) {
+        CatalogSnapshot.View catalog = catalogSnapshot.current();
+        return cartStore.mutate(userId, cart -> {
+            for (CartItemDto item : new ArrayList<>(cart.getItems())) {
+                catalog.getById(item.getProductId())
+                        .filter(product -> product.getPrice().compareTo(item.getPrice()) != 0)
+                        .ifPresent(product -> {
+                            item.setPrice(product.getPrice());
+                            cart.putItem(item);
+                        });
+            }
+        }, this::cacheCart);
+    }
 
-        if (!cartItem.getCart().getId().equals(cart.getId())) {
-            throw new RuntimeException("Cart item does not belong to user's cart");
+    /**
+     * Drops the lines of deleted products from the carts held in memory, the database
+     * would reject them when the cart is flushed.
+     */
+    // Default order, after CatalogSnapshot no longer has the deleted products
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        if (!event.isStockOnly() && !event.isPriceChange()) {
+            removeDeletedProducts(event.getProductIds());
         }
+    }
 
-        cartItemRepository.delete(cartItem);
-
-        cart.setUpdatedAt(LocalDateTime.now());
-        cartRepository.save(cart);
+    // Carts replayed from the journal may hold products deleted before the restart
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        removeDeletedProducts(Set.of());
+    }
 
-        return convertToDto(cart);
+    /**
+     * Writes any pending changes of the user's cart to the database.
+     */
+    public void flushCart(Long userId) {
+        cartStore.flush(userId);
     }
 
-    @Transactional
-    public CartDto clearCart(Long userId) {
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user " + userId));
+    private void addItem(CartStore.CartState cart, ProductDto product, Integer quantity, String color, String size,
+                         Supplier<Long> newItemId) {
+        // Check if item already exists in cart
+        CartItemDto existingItem = cart.findItem(product.getId(), color, size);
 
-        cart.getItems().clear();
-        cart.setUpdatedAt(LocalDateTime.now());
-        cartRepository.save(cart);
+        if (existingItem != null) {
+            // Update quantity
+            existingItem.setQuantity(existingItem.getQuantity() + quantity);
+            cart.putItem(existingItem);
+        } else {
+            // Create new cart item
+            CartItemDto cartItem = new CartItemDto();
+            cartItem.setId(newItemId.get());
+            cartItem.setProductId(product.getId());
+            cartItem.setProductName(product.getName());
+            cartItem.setQuantity(quantity);
+            cartItem.setPrice(product.getPrice());
+            cartItem.setColor(color);
+            cartItem.setSize(size);
+            cartItem.setImageUrl(product.getImageUrl());
+            cart.putItem(cartItem);
+        }
+    }
 
-        return convertToDto(cart);
+    // All products when none are given
+    private void removeDeletedProducts(Set<Long> productIds) {
+        List<Long> userIds = cartStore.usersWithItems(item ->
+                (productIds.isEmpty() || productIds.contains(item.getProductId()))
+                        && catalogSnapshot.current().getById(item.getProductId()).isEmpty());
+        for (Long userId : userIds) {
+            cartStore.mutate(userId, cart -> {
+                CatalogSnapshot.View catalog = catalogSnapshot.current();
+                for (CartItemDto item : new ArrayList<>(cart.getItems())) {
+                    if (catalog.getById(item.getProductId()).isEmpty()) {
+                        cart.removeItem(item.getId());
+                    }
+                }
+            }, this::cacheCart);
+        }
     }
 
-    private Cart createCartForUser(Long userId) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("User not found with id " + userId));
+    private CartItemDto requireItem(CartStore.CartState cart, Long itemId) {
+        CartItemDto cartItem = cart.getItem(itemId);
+        if (cartItem == null) {
+            // Either the item does not exist or it belongs to another user's cart
+            throw new ResourceNotFoundException("Cart item not found with id " + itemId);
+        }
+        return cartItem;
+    }
 
-        Cart cart = new Cart();
-        cart.setUser(user);
-        return cartRepository.save(cart);
+    private CartReadCache.CachedCart cachedCart(Long userId) {
+        return cartReadCache.get(userId, () -> cartStore.read(userId, this::convertToDto));
     }
 
-    private CartDto convertToDto(Cart cart) {
-        CartDto cartDto = new CartDto();
-        cartDto.setId(cart.getId());
-        cartDto.setUserId(cart.getUser().getId());
-        cartDto.setTotalAmount(cart.getTotalAmount());
-        cartDto.setItems(cart.getItems().stream()
-                .map(this::convertItemToDto)
-                .collect(Collectors.toList()));
-        return cartDto;
+    // Runs under the cart lock, so the cache sees the user's changes in order
+    private CartDto cacheCart(CartStore.CartState cart) {
+        return cartReadCache.put(cart.getUserId(), convertToDto(cart));
     }
 
-    private CartItemDto convertItemToDto(CartItem cartItem) {
-        CartItemDto dto = new CartItemDto();
-        dto.setId(cartItem.getId());
-        dto.setProductId(cartItem.getProduct().getId());
-        dto.setProductName(cartItem.getProduct().getName());
-        dto.setQuantity(cartItem.getQuantity());
-        dto.setPrice(cartItem.getPrice());
-        dto.setColor(cartItem.getColor());
-        dto.setSize(cartItem.getSize());
-        
-        if (!cartItem.getProduct().getImages().isEmpty()) {
-            dto.setImageUrl(cartItem.getProduct().getImages().get(0));
+    private CartDto convertToDto(CartStore.CartState cart) {
+        CartDto cartDto = new CartDto();
+        cartDto.setId(cart.getCartId());
+        cartDto.setUserId(cart.getUserId());
+
+        // Copies, the cached items keep changing after the response is built
+        List<CartItemDto> items = new ArrayList<>(cart.getItems().size());
+        for (CartItemDto item : cart.getItems()) {
+            items.add(new CartItemDto(item.getId(), item.getProductId(), item.getProductName(), item.getQuantity(),
+                    item.getPrice(), item.getColor(), item.getSize(), item.getImageUrl()));
         }
-        
-        return dto;
+        cartDto.setItems(items);
+        cartDto.setTotalAmount(BigDecimal.valueOf(cart.getSubtotalMinor(), 2));
+        cartDto.setItemCount(cart.getItemCount());
+        return cartDto;
     }
 }
@@ -0,0 +1,562 @@
+
+package com.socksbox.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.socksbox.dto.CartItemDto;
+import com.socksbox.exception.ResourceNotFoundException;
+import com.socksbox.repository.CartJdbcRepository;
+import com.socksbox.repository.CartJdbcRepository.CartChanges;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Write-behind store for shopping carts. Active carts live in memory keyed by user id
+ * and every mutation is applied there, appended to a {@link CartJournal} and
+ * acknowledged without touching the database. Dirty carts are written to
+ * {@code carts}/{@code cart_items} in batches on a timer, and a single cart can be
+ * flushed on demand before checkout reads it through JPA.
+ * <p>
+ * A cart the database rejects, e.g. for a line whose product was deleted meanwhile, is
+ * quarantined: it is written on its own from then on, so it never holds up the other
+ * carts, and kept in the journal until it can be stored.
+ * <p>
+ * This assumes one application instance owns the carts it serves.
+ */
+@Component
+public class CartStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CartStore.class);
+
+    private static final int ITEM_ID_BLOCK = 100;
+
+    @Autowired
+    private CartJdbcRepository cartJdbcRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CartLocks cartLocks;
+
+    @Value("${cart.journal.dir:data/cart-journal}")
+    private String journalDirectory;
+
+    @Value("${cart.journal.fsync:false}")
+    private boolean journalFsync;
+
+    @Value("${cart.idle-evict-ms:1800000}")
+    private long idleEvictMillis;
+
+    private final Map<Long, CartState> carts = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+    private final Set<Long> quarantinedUsers = ConcurrentHashMap.newKeySet();
+    // Mutations share the read side, a flush takes the write side to rotate the journal
+    private final ReadWriteLock rotationLock = new ReentrantReadWriteLock();
+    private final Deque<Long> itemIds = new ArrayDeque<>();
+    // Drains and database writes happen one at a time so an older state never overwrites a newer one
+    private final Object writeMonitor = new Object();
+    private CartJournal journal;
+
+    @PostConstruct
+    void recover() throws IOException {
+        journal = new CartJournal(Paths.get(journalDirectory), journalFsync);
+        List<Path> segments = journal.recoverSegments();
+        if (segments.isEmpty()) {
+            return;
+        }
+
+        // Every entry holds the whole cart, so the last one per user is its latest state
+        Map<Long, JournalEntry> latest = new LinkedHashMap<>();
+        for (Path segment : segments) {
+            for (String line : Files.readAllLines(segment)) {
+                try {
+                    JournalEntry entry = objectMapper.readValue(line, JournalEntry.class);
+                    latest.put(entry.getUserId(), entry);
+                } catch (JsonProcessingException e) {
+                    // A torn last line from a crash mid-write, the mutation was never acknowledged
+                }
+            }
+        }
+
+        Map<Long, CartChanges> changes = new LinkedHashMap<>();
+        for (JournalEntry entry : latest.values()) {
+            CartState replayed = new CartState(entry.getUserId(), entry.getCartId());
+            for (CartItemDto item : entry.getItems()) {
+                replayed.loadItem(item);
+            }
+            changes.put(entry.getUserId(), new CartChanges(entry.getCartId(), entry.getUpdatedAt(),
+                    replayed.subtotalMinor, replayed.itemCount, entry.getItems(),
+                    new ArrayList<>(entry.getDeletedItemIds())));
+        }
+        try {
+            cartJdbcRepository.write(changes.values());
+        } catch (DataIntegrityViolationException e) {
+            log.warn("Could not replay the cart journal in one go, replaying cart by cart", e);
+            changes.forEach((userId, cart) -> {
+                try {
+                    cartJdbcRepository.write(List.of(cart));
+                } catch (DataIntegrityViolationException rejected) {
+                    log.error("Could not replay the cart of user {}, keeping it in quarantine", userId, rejected);
+                    quarantine(latest.get(userId));
+                }
+            });
+        }
+        journal.delete(segments);
+        log.info("Replayed {} carts from the cart journal", changes.size());
+    }
+
+    @PreDestroy
+    void shutdown() throws IOException {
+        flushAll();
+        journal.close();
+    }
+
+    /**
+     * Runs {@code reader} against the user's cart while no mutation can change it.
+     */
+    public <T> T read(Long userId, Function<CartState, T> reader) {
+        return cartLocks.withLock(userId, () -> {
+            CartState cart = load(userId);
+            cart.lastAccess = System.currentTimeMillis();
+            return reader.apply(cart);
+        });
+    }
+
+    /**
+     * Applies {@code mutation} to the user's cart, journals the new state and marks the
+     * cart dirty. Returns whatever {@code reader} makes of the cart afterwards.
+     */
+    public <T> T mutate(Long userId, Consumer<CartState> mutation, Function<CartState, T> reader) {
+        rotationLock.readLock().lock();
+        try {
+            return cartLocks.withLock(userId, () -> {
+                CartState cart = load(userId);
+                mutation.accept(cart);
+                cart.updatedAt = LocalDateTime.now();
+                cart.lastAccess = System.currentTimeMillis();
+                journal.append(serialize(cart));
+                dirtyUsers.add(userId);
+                return reader.apply(cart);
+            });
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Users whose cart is in memory and has a line matching {@code filter}.
+     */
+    public List<Long> usersWithItems(Predicate<CartItemDto> filter) {
+        List<Long> userIds = new ArrayList<>();
+        for (CartState cart : carts.values()) {
+            cartLocks.withLock(cart.userId, () -> {
+                for (CartItemDto item : cart.items.values()) {
+                    if (filter.test(item)) {
+                        userIds.add(cart.userId);
+                        return;
+                    }
+                }
+            });
+        }
+        return userIds;
+    }
+
+    /**
+     * Takes a cart item id that is already reserved in the database sequence.
+     */
+    Long nextItemId() {
+        synchronized (itemIds) {
+            if (itemIds.isEmpty()) {
+                itemIds.addAll(cartJdbcRepository.allocateItemIds(ITEM_ID_BLOCK));
+            }
+            return itemIds.poll();
+        }
+    }
+
+    List<Long> nextItemIds(int count) {
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(nextItemId());
+        }
+        return ids;
+    }
+
+    /**
+     * Writes one user's cart now, for callers that are about to read it from the database.
+     * Best called before the caller's transaction opens. Inside one the write joins it, and
+     * the cart counts as unwritten again if that transaction rolls back.
+     */
+    public void flush(Long userId) {
+        CartState cart = carts.get(userId);
+        if (cart == null || !dirtyUsers.remove(userId)) {
+            return;
+        }
+        Map<CartState, CartChanges> changes = new LinkedHashMap<>();
+        if (!write(List.of(cart), changes).isEmpty()) {
+            throw new RuntimeException("Could not save the cart, please try again");
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        restore(List.of(cart), changes);
+                    }
+                }
+            });
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cart.flush-interval-ms:2000}")
+    public void flushAll() {
+        List<Path> segments;
+        List<CartState> dirty = new ArrayList<>();
+        rotationLock.writeLock().lock();
+        try {
+            segments = journal.rotate();
+            for (Long userId : new ArrayList<>(dirtyUsers)) {
+                dirtyUsers.remove(userId);
+                CartState cart = carts.get(userId);
+                if (cart != null) {
+                    dirty.add(cart);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not rotate the cart journal", e);
+            return;
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+
+        try {
+            // Carts that could not be written go into the current segment again, so the old
+            // segments can always be deleted and the journal never outgrows the dirty carts
+            for (CartState cart : write(dirty, new LinkedHashMap<>())) {
+                rejournal(cart);
+            }
+            journal.delete(segments);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not delete flushed cart journal segments", e);
+        }
+        evictIdle();
+    }
+
+    // Returns the carts that could not be written, they are dirty again. What was drained
+    // from each cart is left in changes.
+    private List<CartState> write(Collection<CartState> dirty, Map<CartState, CartChanges> changes) {
+        if (dirty.isEmpty()) {
+            return List.of();
+        }
+        synchronized (writeMonitor) {
+            for (CartState cart : dirty) {
+                cartLocks.withLock(cart.userId, () -> changes.put(cart, cart.drainChanges()));
+            }
+
+            List<CartState> together = new ArrayList<>();
+            List<CartState> alone = new ArrayList<>();
+            for (CartState cart : dirty) {
+                (quarantinedUsers.contains(cart.userId) ? alone : together).add(cart);
+            }
+            if (!together.isEmpty()) {
+                try {
+                    cartJdbcRepository.write(together.stream().map(changes::get).toList());
+                } catch (DataIntegrityViolationException e) {
+                    // One bad cart fails the whole batch, find it by writing each on its own
+                    log.warn("Could not flush {} carts together, writing them one by one", together.size(), e);
+                    alone.addAll(together);
+                } catch (RuntimeException e) {
+                    log.warn("Could not flush {} carts, will retry", dirty.size(), e);
+                    return restore(dirty, changes);
+                }
+            }
+
+            List<CartState> failed = new ArrayList<>();
+            for (CartState cart : alone) {
+                try {
+                    cartJdbcRepository.write(List.of(changes.get(cart)));
+                    if (quarantinedUsers.remove(cart.userId)) {
+                        log.info("Flushed the quarantined cart of user {}", cart.userId);
+                    }
+                } catch (DataIntegrityViolationException e) {
+                    if (quarantinedUsers.add(cart.userId)) {
+                        log.error("Could not flush the cart of user {}, writing it on its own from now on",
+                                cart.userId, e);
+                    }
+                    failed.add(cart);
+                } catch (RuntimeException e) {
+                    log.warn("Could not flush the cart of user {}, will retry", cart.userId, e);
+                    failed.add(cart);
+                }
+            }
+            return restore(failed, changes);
+        }
+    }
+
+    private List<CartState> restore(Collection<CartState> failed, Map<CartState, CartChanges> changes) {
+        for (CartState cart : failed) {
+            cartLocks.withLock(cart.userId, () -> cart.restoreChanges(changes.get(cart)));
+            dirtyUsers.add(cart.userId);
+        }
+        return new ArrayList<>(failed);
+    }
+
+    private void rejournal(CartState cart) {
+        rotationLock.readLock().lock();
+        try {
+            cartLocks.withLock(cart.userId, () -> journal.append(serialize(cart)));
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+    }
+
+    // A replayed cart the database rejects stays in memory, dirty, until it can be written
+    private void quarantine(JournalEntry entry) {
+        CartState cart = new CartState(entry.getUserId(), entry.getCartId());
+        for (CartItemDto item : entry.getItems()) {
+            cart.putItem(item);
+        }
+        cart.deletedItemIds.addAll(entry.getDeletedItemIds());
+        cart.updatedAt = entry.getUpdatedAt();
+        carts.put(cart.userId, cart);
+        dirtyUsers.add(cart.userId);
+        quarantinedUsers.add(cart.userId);
+        journal.append(serialize(cart));
+    }
+
+    private void evictIdle() {
+        long idleSince = System.currentTimeMillis() - idleEvictMillis;
+        for (CartState cart : carts.values()) {
+            cartLocks.withLock(cart.userId, () -> {
+                if (cart.lastAccess < idleSince && !dirtyUsers.contains(cart.userId) && !cart.hasPendingChanges()) {
+                    carts.remove(cart.userId, cart);
+                }
+            });
+        }
+    }
+
+    private CartState load(Long userId) {
+        return carts.computeIfAbsent(userId, id -> {
+            Long cartId = cartJdbcRepository.touchCart(id).orElseGet(() -> createCart(id));
+            CartState cart = new CartState(id, cartId);
+            for (CartItemDto item : cartJdbcRepository.findItems(cartId)) {
+                cart.loadItem(item);
+            }
+            return cart;
+        });
+    }
+
+    private Long createCart(Long userId) {
+        try {
+            return cartJdbcRepository.createCart(userId);
+        } catch (DataIntegrityViolationException e) {
+            throw new ResourceNotFoundException("User not found with id " + userId);
+        }
+    }
+
+    private byte[] serialize(CartState cart) {
+        try {
+            return objectMapper.writeValueAsBytes(new JournalEntry(cart.userId, cart.cartId, cart.updatedAt,
+                    new ArrayList<>(cart.items.values()), new ArrayList<>(cart.deletedItemIds)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize cart journal entry", e);
+        }
+    }
+
+    /**
+     * In-memory cart of one user. Only touched while holding the user's lock from
+     * {@link CartLocks}, which {@link #read} and {@link #mutate} take care of.
+     */
+    public static final class CartState {
+
+        private final Long userId;
+        private final Long cartId;
+        private final Map<Long, CartItemDto> items = new LinkedHashMap<>();
+        private final Set<Long> dirtyItemIds = new LinkedHashSet<>();
+        private final Set<Long> deletedItemIds = new LinkedHashSet<>();
+        // What each line adds to the running totals, so a change only applies its difference
+        private final Map<Long, LineTotal> lineTotals = new HashMap<>();
+        private long subtotalMinor;
+        private int itemCount;
+        private LocalDateTime updatedAt = LocalDateTime.now();
+        private long lastAccess = System.currentTimeMillis();
+
+        private CartState(Long userId, Long cartId) {
+            this.userId = userId;
+            this.cartId = cartId;
+        }
+
+        public Long getUserId() {
+            return userId;
+        }
+
+        public Long getCartId() {
+            return cartId;
+        }
+
+        public Collection<CartItemDto> getItems() {
+            return items.values();
+        }
+
+        public CartItemDto getItem(Long itemId) {
+            return items.get(itemId);
+        }
+
+        /**
+         * Sum of all lines in minor currency units (cents), kept up to date by every change.
+         */
+        public long getSubtotalMinor() {
+            return subtotalMinor;
+        }
+
+        /**
+         * Number of units across all lines.
+         */
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        public CartItemDto findItem(Long productId, String color, String size) {
+            for (CartItemDto item : items.values()) {
+                // Same line identity as the unique index: a missing color or size equals an empty one
+                if (item.getProductId().equals(productId)
+                        && Objects.toString(item.getColor(), "").equals(Objects.toString(color, ""))
+                        && Objects.toString(item.getSize(), "").equals(Objects.toString(size, ""))) {
+                    return item;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds or replaces an item. Changes to an item must always go through here.
+         */
+        public void putItem(CartItemDto item) {
+            loadItem(item);
+            dirtyItemIds.add(item.getId());
+        }
+
+        public void removeItem(Long itemId) {
+            if (items.remove(itemId) != null) {
+                LineTotal removed = lineTotals.remove(itemId);
+                subtotalMinor -= removed.amountMinor;
+                itemCount -= removed.quantity;
+                dirtyItemIds.remove(itemId);
+                deletedItemIds.add(itemId);
+            }
+        }
+
+        public void clear() {
+            for (Long itemId : new ArrayList<>(items.keySet())) {
+                removeItem(itemId);
+            }
+        }
+
+        private void loadItem(CartItemDto item) {
+            items.put(item.getId(), item);
+            LineTotal line = new LineTotal(toMinorUnits(item.getPrice()) * item.getQuantity(), item.getQuantity());
+            LineTotal previous = lineTotals.put(item.getId(), line);
+            if (previous != null) {
+                subtotalMinor -= previous.amountMinor;
+                itemCount -= previous.quantity;
+            }
+            subtotalMinor += line.amountMinor;
+            itemCount += line.quantity;
+        }
+
+        private boolean hasPendingChanges() {
+            return !dirtyItemIds.isEmpty() || !deletedItemIds.isEmpty();
+        }
+
+        private CartChanges drainChanges() {
+            List<CartItemDto> upserted = new ArrayList<>();
+            for (Long itemId : dirtyItemIds) {
+                CartItemDto item = items.get(itemId);
+                upserted.add(new CartItemDto(item.getId(), item.getProductId(), item.getProductName(),
+                        item.getQuantity(), item.getPrice(), item.getColor(), item.getSize(), item.getImageUrl()));
+            }
+            CartChanges changes = new CartChanges(cartId, updatedAt, subtotalMinor, itemCount, upserted,
+                    new ArrayList<>(deletedItemIds));
+            dirtyItemIds.clear();
+            deletedItemIds.clear();
+            return changes;
+        }
+
+        private void restoreChanges(CartChanges changes) {
+            for (CartItemDto item : changes.getUpsertedItems()) {
+                if (items.containsKey(item.getId())) {
+                    dirtyItemIds.add(item.getId());
+                }
+            }
+            for (Long itemId : changes.getDeletedItemIds()) {
+                if (!items.containsKey(itemId)) {
+                    deletedItemIds.add(itemId);
+                }
+            }
+        }
+    }
+
+    static long toMinorUnits(BigDecimal amount) {
+        return amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    private static final class LineTotal {
+
+        private final long amountMinor;
+        private final int quantity;
+
+        private LineTotal(long amountMinor, int quantity) {
+            this.amountMinor = amountMinor;
+            this.quantity = quantity;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class JournalEntry {
+        private Long userId;
+        private Long cartId;
+        private LocalDateTime updatedAt;
+        private List<CartItemDto> items = new ArrayList<>();
+        private List<Long> deletedItemIds = new ArrayList<>();
+    }
+}
@@ -0,0 +1,109 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.CartSweepResultDto;
+import com.socksbox.repository.CartJdbcRepository;
+import com.socksbox.repository.CartJdbcRepository.SweptCarts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Removes carts nobody has used for a while, together with their items. Carts are
+ * created eagerly at registration and were never cleaned up, so most rows belong to
+ * users who left long ago. Each chunk is a single statement, and the sweep sleeps
+ * between chunks to stay within a rows per second budget so it never competes with
+ * shoppers for the database.
+ * <p>
+ * A swept user simply gets a new cart the next time the cart is opened.
+ */
+@Component
+public class CartSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(CartSweeper.class);
+
+    @Autowired
+    private CartJdbcRepository cartJdbcRepository;
+
+    @Value("${cart.sweep.idle-days:30}")
+    private int idleDays;
+
+    @Value("${cart.sweep.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${cart.sweep.rows-per-second:2000}")
+    private int rowsPerSecond;
+
+    @Value("${cart.sweep.archive:false}")
+    private boolean archive;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile CartSweepResultDto lastResult;
+
+    @Scheduled(cron = "${cart.sweep.cron:0 30 3 * * *}")
+    public void scheduledSweep() {
+        if (running.get()) {
+            return;
+        }
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            log.warn("Idle cart sweep failed", e);
+        }
+    }
+
+    public CartSweepResultDto sweep() {
+        if (!running.compareAndSet(false, true)) {
+            throw new RuntimeException("A cart sweep is already running");
+        }
+        try {
+            CartSweepResultDto result = new CartSweepResultDto();
+            result.setStartedAt(LocalDateTime.now());
+            result.setIdleSince(result.getStartedAt().minusDays(idleDays));
+            result.setArchived(archive);
+            long start = System.currentTimeMillis();
+
+            while (true) {
+                long chunkStart = System.currentTimeMillis();
+                SweptCarts swept = cartJdbcRepository.deleteIdleCarts(result.getIdleSince(), chunkSize, archive);
+                result.setChunks(result.getChunks() + 1);
+                result.setCartsRemoved(result.getCartsRemoved() + swept.getCarts());
+                result.setItemsRemoved(result.getItemsRemoved() + swept.getItems());
+                if (swept.getCarts() < chunkSize) {
+                    break;
+                }
+
+                // Spread the work so the chunk's rows fit the budget
+                long budgetMillis = (swept.getCarts() + swept.getItems()) * 1000L / rowsPerSecond;
+                long pause = budgetMillis - (System.currentTimeMillis() - chunkStart);
+                if (pause > 0) {
+                    try {
+                        Thread.sleep(pause);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            result.setElapsedMillis(System.currentTimeMillis() - start);
+            lastResult = result;
+            log.info("Swept {} idle carts and {} cart items in {} chunks ({} ms){}", result.getCartsRemoved(),
+                    result.getItemsRemoved(), result.getChunks(), result.getElapsedMillis(),
+                    archive ? ", archived" : "");
+            return result;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public CartSweepResultDto getLastResult() {
+        return lastResult;
+    }
+}
@@ -0,0 +1,166 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.ProductDto;
+import com.socksbox.event.CatalogChangedEvent;
+import com.socksbox.repository.ProductReadRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Immutable in-memory copy of the whole catalog that backs the anonymous product
+ * reads. Readers only dereference a volatile field, so they never lock and never
+ * touch the database; writers build a complete new {@link View} off to the side
+ * and swap it in once it is ready.
+ * <p>
+ * The {@link ProductDto}s handed out are shared between requests and must be
+ * treated as read-only.
+ */
+@Component
+public class CatalogSnapshot {
+
+    @Autowired
+    private ProductReadRepository productReadRepository;
+
+    private volatile View view;
+
+    public View current() {
+        View current = view;
+        if (current == null) {
+            synchronized (this) {
+                current = view;
+                if (current == null) {
+                    current = View.of(productReadRepository.findAll());
+                    view = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Runs before the other catalog listeners so they already see the new view
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onCatalogChanged(CatalogChangedEvent event) {
+        View current = view;
+        if (current == null) {
+            // Nothing has been served yet, the first read will load everything
+            return;
+        }
+        if (event.isFullReload()) {
+            view = View.of(productReadRepository.findAll());
+            return;
+        }
+
+        // Only reload the products that changed and splice them into the old view
+        view = current.withChanges(event.getProductIds(), productReadRepository.findByIds(event.getProductIds()));
+    }
+
+    public static final class View {
+
+        private final List<ProductDto> all;
+        private final List<ProductDto> featured;
+        private final Map<Long, ProductDto> byId;
+        private final Map<Long, List<ProductDto>> byCategory;
+        private final Map<Long, List<ProductDto>> byBrand;
+        private final ProductFacetIndex facets;
+        private final ProductSearchIndex search;
+
+        static View of(List<ProductDto> products) {
+            return new View(products, ProductSearchIndex.build(products));
+        }
+
+        private View(List<ProductDto> products, ProductSearchIndex search) {
+            Map<Long, ProductDto> idIndex = new HashMap<>();
+            Map<Long, List<ProductDto>> categoryIndex = new HashMap<>();
+            Map<Long, List<ProductDto>> brandIndex = new HashMap<>();
+            List<ProductDto> featuredProducts = new ArrayList<>();
+
+            for (ProductDto product : products) {
+                idIndex.put(product.getId(), product);
+                if (product.getCategoryId() != null) {
+                    categoryIndex.computeIfAbsent(product.getCategoryId(), k -> new ArrayList<>()).add(product);
+                }
+                if (product.getBrandId() != null) {
+                    brandIndex.computeIfAbsent(product.getBrandId(), k -> new ArrayList<>()).add(product);
+                }
+                if (Boolean.TRUE.equals(product.getFeatured())) {
+                    featuredProducts.add(product);
+                }
+            }
+
+            this.all = List.copyOf(products);
+            this.featured = List.copyOf(featuredProducts);
+            this.byId = Map.copyOf(idIndex);
+            this.byCategory = freeze(categoryIndex);
+            this.byBrand = freeze(brandIndex);
+            this.facets = new ProductFacetIndex(this.all);
+            this.search = search;
+        }
+
+        View withChanges(Collection<Long> changedIds, List<ProductDto> reloaded) {
+            List<ProductDto> previous = new ArrayList<>();
+            Map<Long, ProductDto> products = new TreeMap<>(byId);
+            for (Long id : changedIds) {
+                ProductDto old = products.remove(id);
+                if (old != null) {
+                    previous.add(old);
+                }
+            }
+            for (ProductDto product : reloaded) {
+                products.put(product.getId(), product);
+            }
+            return new View(new ArrayList<>(products.values()), search.update(previous, reloaded));
+        }
+
+        public List<ProductDto> getAll() {
+            return all;
+        }
+
+        public List<ProductDto> getFeatured() {
+            return featured;
+        }
+
+        public Optional<ProductDto> getById(Long id) {
+            return Optional.ofNullable(byId.get(id));
+        }
+
+        public List<ProductDto> getByCategory(Long categoryId) {
+            return byCategory.getOrDefault(categoryId, Collections.emptyList());
+        }
+
+        public List<ProductDto> getByBrand(Long brandId) {
+            return byBrand.getOrDefault(brandId, Collections.emptyList());
+        }
+
+        public ProductFacetIndex getFacets() {
+            return facets;
+        }
+
+        public List<ProductDto> search(String query, int limit) {
+            List<ProductDto> results = new ArrayList<>();
+            for (Long id : search.search(query, limit)) {
+                results.add(byId.get(id));
+            }
+            return results;
+        }
+
+        private static Map<Long, List<ProductDto>> freeze(Map<Long, List<ProductDto>> index) {
+            Map<Long, List<ProductDto>> frozen = new HashMap<>();
+            index.forEach((key, products) -> frozen.put(key, List.copyOf(products)));
+            return Map.copyOf(frozen);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.ProductDto;
+import com.socksbox.dto.SuggestionDto;
+import com.socksbox.entity.Brand;
+import com.socksbox.entity.Category;
+import com.socksbox.entity.Order;
+import com.socksbox.event.CatalogChangedEvent;
+import com.socksbox.repository.BrandRepository;
+import com.socksbox.repository.CategoryRepository;
+import com.socksbox.repository.OrderItemRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves typeahead suggestions for product, brand and category names from a
+ * {@link SuggestionTrie}, so keystrokes never reach the database. Suggestions are
+ * ranked by popularity: units sold for products, the summed popularity of their
+ * products for brands and categories, with a boost for featured items.
+ * <p>
+ * The trie is rebuilt when names or featured flags may have changed, and periodically
+ * to pick up new sales. Stock changes of checkouts are left to the periodic rebuild.
+ */
+@Component
+public class CatalogSuggester {
+
+    private static final long FEATURED_BOOST = 50;
+
+    @Autowired
+    private CatalogSnapshot catalogSnapshot;
+
+    @Autowired
+    private BrandRepository brandRepository;
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private OrderItemRepository orderItemRepository;
+
+    private volatile SuggestionTrie trie;
+
+    public List<SuggestionDto> suggest(String prefix, int limit) {
+        SuggestionTrie current = trie;
+        if (current == null) {
+            synchronized (this) {
+                current = trie;
+                if (current == null) {
+                    current = build();
+                    trie = current;
+                }
+            }
+        }
+        return current.suggest(prefix, limit);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        if (!event.isStockOnly()) {
+            refresh();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${catalog.suggest.refresh-ms:600000}",
+               initialDelayString = "${catalog.suggest.refresh-ms:600000}")
+    public synchronized void refresh() {
+        // Only rebuild once something has been asked for
+        if (trie != null) {
+            trie = build();
+        }
+    }
+
+    private SuggestionTrie build() {
+        Map<Long, Long> unitsSold = new HashMap<>();
+        for (Object[] row : orderItemRepository.sumQuantityByProduct(Order.Status.CANCELLED)) {
+            unitsSold.put((Long) row[0], ((Number) row[1]).longValue());
+        }
+
+        Map<Long, Long> brandPopularity = new HashMap<>();
+        Map<Long, Long> categoryPopularity = new HashMap<>();
+        SuggestionTrie.Builder builder = SuggestionTrie.builder();
+
+        for (ProductDto product : catalogSnapshot.current().getAll()) {
+            long weight = 1 + unitsSold.getOrDefault(product.getId(), 0L);
+            if (Boolean.TRUE.equals(product.getFeatured())) {
+                weight += FEATURED_BOOST;
+            }
+            builder.add(new SuggestionDto(SuggestionDto.Type.PRODUCT, product.getId(), product.getName()), weight);
+            if (product.getBrandId() != null) {
+                brandPopularity.merge(product.getBrandId(), weight, Long::sum);
+            }
+            if (product.getCategoryId() != null) {
+                categoryPopularity.merge(product.getCategoryId(), weight, Long::sum);
+            }
+        }
+
+        for (Brand brand : brandRepository.findAll()) {
+            long weight = 1 + brandPopularity.getOrDefault(brand.getId(), 0L);
+            if (Boolean.TRUE.equals(brand.getFeatured())) {
+                weight += FEATURED_BOOST;
+            }
+            builder.add(new SuggestionDto(SuggestionDto.Type.BRAND, brand.getId(), brand.getName()), weight);
+        }
+
+        for (Category category : categoryRepository.findAll()) {
+            long weight = 1 + categoryPopularity.getOrDefault(category.getId(), 0L);
+            builder.add(new SuggestionDto(SuggestionDto.Type.CATEGORY, category.getId(), category.getName()), weight);
+        }
+
+        return builder.build();
+    }
+}
@@ -0,0 +1,113 @@
+
+package com.socksbox.service;
+
+import com.socksbox.event.CatalogChangedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.WebRequest;
+
+/**
+ * Version counter for everything the catalog controllers return, used as a strong
+ * ETag and Last-Modified so unchanged catalog reads are answered with 304 before
+ * any data is looked up. The ETag also carries the startup time, so counters from
+ * before a restart never match.
+ * <p>
+ * Brands and categories have a counter of their own: their responses hold nothing of
+ * the products, so stock and product changes leave their ETags alone.
+ */
+@Component
+public class CatalogVersion {
+
+    private final long startedAt = System.currentTimeMillis();
+
+    private volatile Stamp stamp = new Stamp("", 0, startedAt);
+    private volatile Stamp brandsAndCategoriesStamp = new Stamp("bc", 0, startedAt);
+
+    public String getETag() {
+        return stamp.etag;
+    }
+
+    public long getLastModified() {
+        return stamp.lastModified;
+    }
+
+    /**
+     * Sets the ETag and Last-Modified headers and returns true when the request's
+     * validators still match, in which case the caller should return no body.
+     */
+    public boolean checkNotModified(WebRequest request) {
+        Stamp current = stamp;
+        return request.checkNotModified(current.etag, current.lastModified);
+    }
+
+    /**
+     * Same for responses from {@link JsonResponseCache}, which are gzipped for clients
+     * that accept it. Those get an ETag of their own, a strong ETag is never shared by
+     * the gzipped and the plain body.
+     */
+    public boolean checkNotModified(WebRequest request, String acceptEncoding) {
+        return notModified(stamp, request, acceptEncoding);
+    }
+
+    /**
+     * The checks for brand and category responses.
+     */
+    public boolean checkBrandsAndCategoriesNotModified(WebRequest request) {
+        Stamp current = brandsAndCategoriesStamp;
+        return request.checkNotModified(current.etag, current.lastModified);
+    }
+
+    public boolean checkBrandsAndCategoriesNotModified(WebRequest request, String acceptEncoding) {
+        return notModified(brandsAndCategoriesStamp, request, acceptEncoding);
+    }
+
+    public synchronized void bump() {
+        stamp = stamp.next();
+        brandsAndCategoriesStamp = brandsAndCategoriesStamp.next();
+    }
+
+    // Runs after every other catalog listener, a new version must never be paired with old data
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        // Brands and categories only change together with a full reload
+        if (event.isFullReload()) {
+            bump();
+        } else {
+            synchronized (this) {
+                stamp = stamp.next();
+            }
+        }
+    }
+
+    private static boolean notModified(Stamp current, WebRequest request, String acceptEncoding) {
+        String etag = JsonResponseCache.acceptsGzip(acceptEncoding) ? current.gzipEtag : current.etag;
+        return request.checkNotModified(etag, current.lastModified);
+    }
+
+    private final class Stamp {
+
+        private final String name;
+        private final long version;
+        private final long lastModified;
+        private final String etag;
+        private final String gzipEtag;
+
+        private Stamp(String name, long version, long lastModified) {
+            this.name = name;
+            this.version = version;
+            // Last-Modified only has second precision
+            this.lastModified = lastModified / 1000 * 1000;
+            String tag = Long.toString(startedAt, 36) + "-" + name + version;
+            this.etag = "\"" + tag + "\"";
+            this.gzipEtag = "\"" + tag + "-gzip\"";
+        }
+
+        private Stamp next() {
+            // Keep Last-Modified moving even for several writes within one second
+            return new Stamp(name, version + 1, Math.max(System.currentTimeMillis(), lastModified + 1000));
+        }
+    }
+}
@@ -3,9 +3,11 @@ package com.socksbox.service;
 
 import com.socksbox.dto.CategoryDto;
 import com.socksbox.entity.Category;
+import com.socksbox.event.CatalogChangedEvent;
 import com.socksbox.exception.ResourceNotFoundException;
 import com.socksbox.repository.CategoryRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -17,6 +19,15 @@ public class CategoryService {
     @Autowired
     private CategoryRepository categoryRepository;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private JsonResponseCache jsonResponseCache;
+
+    @Autowired
+    private CatalogVersion catalogVersion;
+
     public List<CategoryDto> getAllCategories() {
         return categoryRepository.findAll().stream()
                 .map(this::convertToDto)
@@ -40,6 +51,9 @@ public class CategoryService {
         category.setImageUrl(categoryDto.getImageUrl());
         
         Category savedCategory = categoryRepository.save(category);
+        // No product changed, only the category list itself
+        jsonResponseCache.invalidate(JsonResponseCache.CATEGORIES);
+        catalogVersion.bump();
         return convertToDto(savedCategory);
     }
 
@@ -58,6 +72,8 @@ public class CategoryService {
         category.setImageUrl(categoryDto.getImageUrl());
         
         Category updatedCategory = categoryRepository.save(category);
+        // Products carry the category name, so every product listing may have changed
+        eventPublisher.publishEvent(CatalogChangedEvent.all());
         return convertToDto(updatedCategory);
     }
 
@@ -66,6 +82,7 @@ public class CategoryService {
             throw new ResourceNotFoundException("Category not found with id " + id);
         }
         categoryRepository.deleteById(id);
+        eventPublisher.publishEvent(CatalogChangedEvent.all());
     }
 
     private CategoryDto convertToDto(Category category) {
@@ -0,0 +1,124 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.CartDto;
+import com.socksbox.dto.CartItemDto;
+import com.socksbox.dto.CartOperationDto;
+import com.socksbox.dto.GuestCartDto;
+import com.socksbox.dto.ProductDto;
+import com.socksbox.exception.ResourceNotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Carts of shoppers who are not logged in. The cart lives in a {@link GuestCartTokens}
+ * token the client sends with every request, so nothing is written until the shopper
+ * logs in and the cart is merged into theirs. Guest cart items are numbered by their
+ * position in the cart, starting at 1, and names and prices always come from the
+ * current catalog.
+ */
+@Service
+public class GuestCartService {
+
+    @Autowired
+    private GuestCartTokens guestCartTokens;
+
+    @Autowired
+    private CatalogSnapshot catalogSnapshot;
+
+    public GuestCartDto getCart(String token) {
+        List<CartItemDto> lines = guestCartTokens.decode(token);
+        return new GuestCartDto(token, convertToDto(lines, catalogSnapshot.current()));
+    }
+
+    /**
+     * Same operations as {@link CartService#applyOperations}, all or nothing, and returns
+     * the token of the resulting cart. Updating a line to quantity 0 removes it.
+     */
+    public GuestCartDto applyOperations(String token, List<CartOperationDto> operations) {
+        List<CartItemDto> lines = guestCartTokens.decode(token);
+        CatalogSnapshot.View catalog = catalogSnapshot.current();
+
+        // Removed lines keep their place until the end, so item ids stay valid throughout
+        Set<CartItemDto> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CartOperationDto operation : operations) {
+            if (operation.getType() == CartOperationDto.Type.ADD) {
+                if (operation.getProductId() == null || operation.getQuantity() == null || operation.getQuantity() < 1) {
+                    throw new RuntimeException("Add operations need a product and a quantity of at least 1");
+                }
+                ProductDto product = catalog.getById(operation.getProductId())
+                        .orElseThrow(() -> new ResourceNotFoundException("Product not found with id " + operation.getProductId()));
+                addLine(lines, removed, product.getId(), operation.getQuantity(), operation.getColor(), operation.getSize());
+                continue;
+            }
+
+            if (operation.getItemId() == null
+                    || (operation.getType() == CartOperationDto.Type.UPDATE && operation.getQuantity() == null)) {
+                throw new RuntimeException("Update and remove operations need an item id, updates also a quantity");
+            }
+            CartItemDto line = operation.getItemId() >= 1 && operation.getItemId() <= lines.size()
+                    ? lines.get((int) (operation.getItemId() - 1)) : null;
+            if (line == null || removed.contains(line)) {
+                throw new ResourceNotFoundException("Cart item not found with id " + operation.getItemId());
+            }
+            if (operation.getType() == CartOperationDto.Type.REMOVE || operation.getQuantity() == 0) {
+                removed.add(line);
+            } else {
+                line.setQuantity(operation.getQuantity());
+            }
+        }
+        lines.removeIf(removed::contains);
+
+        return new GuestCartDto(guestCartTokens.encode(lines), convertToDto(lines, catalog));
+    }
+
+    private void addLine(List<CartItemDto> lines, Set<CartItemDto> removed, Long productId, int quantity,
+                         String color, String size) {
+        for (CartItemDto line : lines) {
+            if (line.getProductId().equals(productId)
+                    && Objects.toString(line.getColor(), "").equals(Objects.toString(color, ""))
+                    && Objects.toString(line.getSize(), "").equals(Objects.toString(size, ""))
+                    && !removed.contains(line)) {
+                line.setQuantity(line.getQuantity() + quantity);
+                return;
+            }
+        }
+        if (lines.size() >= GuestCartTokens.MAX_LINES) {
+            throw new RuntimeException("A guest cart holds at most " + GuestCartTokens.MAX_LINES + " lines");
+        }
+        CartItemDto line = new CartItemDto();
+        line.setProductId(productId);
+        line.setQuantity(quantity);
+        line.setColor(color);
+        line.setSize(size);
+        lines.add(line);
+    }
+
+    private CartDto convertToDto(List<CartItemDto> lines, CatalogSnapshot.View catalog) {
+        CartDto cartDto = new CartDto();
+        long subtotalMinor = 0;
+        int itemCount = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            CartItemDto line = lines.get(i);
+            // Products taken off the catalog since the token was issued drop out of the cart
+            ProductDto product = catalog.getById(line.getProductId()).orElse(null);
+            if (product == null) {
+                continue;
+            }
+            cartDto.getItems().add(new CartItemDto((long) i + 1, product.getId(), product.getName(), line.getQuantity(),
+                    product.getPrice(), line.getColor(), line.getSize(), product.getImageUrl()));
+            subtotalMinor += CartStore.toMinorUnits(product.getPrice()) * line.getQuantity();
+            itemCount += line.getQuantity();
+        }
+        cartDto.setTotalAmount(BigDecimal.valueOf(subtotalMinor, 2));
+        cartDto.setItemCount(itemCount);
+        return cartDto;
+    }
+}
@@ -0,0 +1,181 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.CartItemDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes a guest cart into a token the client keeps, so anonymous shoppers have a
+ * cart without anything being stored for them. A token is a version byte, the issue
+ * time in minutes and one entry per line (product id, quantity, color, size) as
+ * varints and length-prefixed UTF-8, followed by a truncated HMAC-SHA256 of all of
+ * it, in URL-safe Base64. A typical cart fits in well under a hundred characters.
+ */
+@Component
+public class GuestCartTokens {
+
+    public static final int MAX_LINES = 100;
+
+    private static final byte VERSION = 1;
+    private static final int TAG_BYTES = 16;
+    private static final int MAX_TOKEN_CHARS = 8192;
+
+    @Value("${guest-cart.secret:${jwt.secret}}")
+    private String secret;
+
+    @Value("${guest-cart.max-age-days:30}")
+    private int maxAgeDays;
+
+    private SecretKeySpec key;
+
+    @PostConstruct
+    void init() {
+        // Own key derived from the secret, a guest cart tag is never valid anywhere else
+        key = new SecretKeySpec(mac(("guest-cart:" + secret).getBytes(StandardCharsets.UTF_8),
+                new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256")), "HmacSHA256");
+    }
+
+    /**
+     * Lines hold product id, quantity, color and size; everything else is looked up again
+     * when the token is read.
+     */
+    public String encode(List<CartItemDto> lines) {
+        if (lines.size() > MAX_LINES) {
+            throw new RuntimeException("A guest cart holds at most " + MAX_LINES + " lines");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + lines.size() * 12);
+        out.write(VERSION);
+        writeVarint(out, TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis()));
+        writeVarint(out, lines.size());
+        for (CartItemDto line : lines) {
+            writeVarint(out, line.getProductId());
+            writeVarint(out, line.getQuantity());
+            writeString(out, line.getColor());
+            writeString(out, line.getSize());
+        }
+        byte[] payload = out.toByteArray();
+        byte[] tag = Arrays.copyOf(mac(payload, key), TAG_BYTES);
+        out.writeBytes(tag);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * The lines of a token, or none for a missing token. Tampered, malformed and expired
+     * tokens are rejected.
+     */
+    public List<CartItemDto> decode(String token) {
+        if (token == null || token.isBlank()) {
+            return new ArrayList<>();
+        }
+        if (token.length() > MAX_TOKEN_CHARS) {
+            throw new RuntimeException("Invalid guest cart");
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid guest cart");
+        }
+        if (bytes.length <= TAG_BYTES + 1) {
+            throw new RuntimeException("Invalid guest cart");
+        }
+        byte[] payload = Arrays.copyOf(bytes, bytes.length - TAG_BYTES);
+        byte[] expected = Arrays.copyOf(mac(payload, key), TAG_BYTES);
+        if (!MessageDigest.isEqual(expected, Arrays.copyOfRange(bytes, payload.length, bytes.length))) {
+            throw new RuntimeException("Invalid guest cart");
+        }
+
+        try {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            if (in.get() != VERSION) {
+                throw new RuntimeException("Invalid guest cart");
+            }
+            long issuedMinutes = readVarint(in);
+            if (TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis()) - issuedMinutes > TimeUnit.DAYS.toMinutes(maxAgeDays)) {
+                throw new RuntimeException("The guest cart has expired");
+            }
+            long count = readVarint(in);
+            if (count > MAX_LINES) {
+                throw new RuntimeException("Invalid guest cart");
+            }
+            List<CartItemDto> lines = new ArrayList<>((int) count);
+            for (int i = 0; i < count; i++) {
+                CartItemDto line = new CartItemDto();
+                line.setProductId(readVarint(in));
+                line.setQuantity(Math.toIntExact(readVarint(in)));
+                line.setColor(readString(in));
+                line.setSize(readString(in));
+                lines.add(line);
+            }
+            return lines;
+        } catch (BufferUnderflowException | ArithmeticException e) {
+            throw new RuntimeException("Invalid guest cart");
+        }
+    }
+
+    private static byte[] mac(byte[] data, SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ArithmeticException("Varint too long");
+    }
+
+    // A missing color or size is the same line as an empty one, so both are written empty
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = Math.toIntExact(readVarint(in));
+        if (length == 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,225 @@
+
+package com.socksbox.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.socksbox.exception.IdempotencyConflictException;
+import com.socksbox.repository.IdempotencyJdbcRepository;
+import com.socksbox.repository.IdempotencyJdbcRepository.StoredResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs a request at most once per {@code Idempotency-Key}. Repeats of a finished request
+ * get its stored response back, and repeats arriving while it still runs wait for it
+ * instead of running again. A key only matches requests with the same body.
+ * <p>
+ * Recent keys live in a bounded map in memory, every key also in {@code idempotency_keys}
+ * so restarts, evictions and other instances are covered. The response is stored in the
+ * transaction of the request itself, a request either happened with its response stored
+ * or not at all. Requests that fail with an exception leave nothing behind and can be
+ * retried with the same key.
+ */
+@Component
+public class IdempotencyStore {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    @Value("${idempotency.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    // A claimed key nobody completed within this long belongs to a request that died
+    @Value("${idempotency.pending-timeout-ms:60000}")
+    private long pendingTimeoutMillis;
+
+    @Autowired
+    private IdempotencyJdbcRepository idempotencyJdbcRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Runs {@code action} for a new key and returns its response, or returns the response
+     * of the request that used the key before. Without a key the action just runs.
+     * {@code scope} keeps the keys of different users and endpoints apart.
+     */
+    public <T> ResponseEntity<T> execute(String scope, String key, Object request, Class<T> responseType,
+                                         Supplier<ResponseEntity<T>> action) {
+        if (key == null || key.isBlank()) {
+            return action.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new RuntimeException(HEADER + " must be at most " + MAX_KEY_LENGTH + " characters");
+        }
+
+        String requestHash = hash(request);
+        String id = scope + '\n' + key;
+        Entry claimed = new Entry(requestHash);
+        Entry existing = entries.putIfAbsent(id, claimed);
+        if (existing != null) {
+            return replay(existing, requestHash, responseType);
+        }
+        insertionOrder.add(id);
+        trim();
+
+        try {
+            if (!idempotencyJdbcRepository.claim(scope, key, requestHash)) {
+                // Used before this instance remembers, or running on another instance
+                StoredResponse stored = idempotencyJdbcRepository.find(scope, key).orElse(null);
+                if (stored != null && !stored.getRequestHash().equals(requestHash)) {
+                    throw mismatch();
+                }
+                if (stored != null && stored.getStatus() != null) {
+                    claimed.result.complete(stored);
+                    return replay(claimed, requestHash, responseType);
+                }
+                LocalDateTime staleBefore = LocalDateTime.now().minus(pendingTimeoutMillis, ChronoUnit.MILLIS);
+                if (!idempotencyJdbcRepository.takeOver(scope, key, requestHash, staleBefore)) {
+                    throw new IdempotencyConflictException("A request with this " + HEADER + " is still in progress");
+                }
+            }
+
+            StoredResponse[] stored = new StoredResponse[1];
+            ResponseEntity<T> response;
+            try {
+                response = transactionTemplate.execute(status -> {
+                    ResponseEntity<T> result = action.get();
+                    stored[0] = new StoredResponse(requestHash, result.getStatusCode().value(), toJson(result.getBody()));
+                    idempotencyJdbcRepository.complete(scope, key, stored[0].getStatus(), stored[0].getResponseBody());
+                    return result;
+                });
+            } catch (RuntimeException e) {
+                idempotencyJdbcRepository.release(scope, key);
+                throw e;
+            }
+            // Waiters only see the response once it is committed
+            claimed.result.complete(stored[0]);
+            return response;
+        } catch (RuntimeException e) {
+            entries.remove(id, claimed);
+            claimed.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${idempotency.evict-interval-ms:600000}")
+    public void evictExpired() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(ttlHours);
+        entries.forEach((id, entry) -> {
+            if (entry.createdAt < expiredBefore && entry.result.isDone()) {
+                entries.remove(id, entry);
+            }
+        });
+        insertionOrder.removeIf(id -> !entries.containsKey(id));
+        idempotencyJdbcRepository.deleteOlderThan(LocalDateTime.now().minusHours(ttlHours));
+    }
+
+    private <T> ResponseEntity<T> replay(Entry entry, String requestHash, Class<T> responseType) {
+        if (!entry.requestHash.equals(requestHash)) {
+            throw mismatch();
+        }
+        StoredResponse stored;
+        try {
+            stored = entry.result.get(pendingTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // The first request failed, so does this one
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IdempotencyConflictException("A request with this " + HEADER + " is still in progress");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyConflictException("A request with this " + HEADER + " is still in progress");
+        }
+
+        try {
+            T body = stored.getResponseBody() != null ? objectMapper.readValue(stored.getResponseBody(), responseType) : null;
+            return ResponseEntity.status(stored.getStatus()).header(REPLAYED_HEADER, "true").body(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored response cannot be read", e);
+        }
+    }
+
+    // Oldest first, requests still running are never evicted
+    private void trim() {
+        while (entries.size() > maxEntries) {
+            String oldest = insertionOrder.poll();
+            if (oldest == null) {
+                return;
+            }
+            Entry entry = entries.get(oldest);
+            if (entry != null && !entry.result.isDone()) {
+                insertionOrder.add(oldest);
+                return;
+            }
+            if (entry != null) {
+                entries.remove(oldest, entry);
+            }
+        }
+    }
+
+    private String hash(Object request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(objectMapper.writeValueAsBytes(request)));
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Request cannot be hashed", e);
+        }
+    }
+
+    private String toJson(Object body) {
+        try {
+            return body != null ? objectMapper.writeValueAsString(body) : null;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Response cannot be stored", e);
+        }
+    }
+
+    private static RuntimeException mismatch() {
+        return new RuntimeException(HEADER + " was already used for a different request");
+    }
+
+    private static final class Entry {
+
+        private final String requestHash;
+        private final long createdAt = System.currentTimeMillis();
+        private final CompletableFuture<StoredResponse> result = new CompletableFuture<>();
+
+        private Entry(String requestHash) {
+            this.requestHash = requestHash;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.InventoryDriftDto;
+import com.socksbox.dto.InventoryMovementDto;
+import com.socksbox.event.CatalogChangedEvent;
+import com.socksbox.repository.InventoryJdbcRepository;
+import com.socksbox.repository.InventoryLedgerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Every change of a product's stock. Most products keep their stock on the product row;
+ * hot products can have it split into shards so concurrent checkouts each lock a
+ * different row. Every sharded product has in-memory counters of its shard quantities,
+ * which only steer checkouts towards shards that should have enough: the conditional
+ * updates in {@link InventoryJdbcRepository} decide. A background pass reloads the
+ * counters from the table and evens out shards that drifted apart.
+ * <p>
+ * Each change is also appended to the inventory ledger in the same transaction, and the
+ * ledger is periodically folded into snapshots. The product rows and shards are the
+ * current-stock projection of the ledger and can be rebuilt from it.
+ */
+@Service
+public class InventoryService {
+
+    public static final int MAX_SHARDS = 64;
+
+    private static final int MAX_MOVEMENTS = 1000;
+
+    @Value("${inventory.shards.rebalance-skew:0.5}")
+    private double rebalanceSkew;
+
+    @Value("${inventory.ledger.snapshot-lag-ms:60000}")
+    private long snapshotLagMillis;
+
+    @Autowired
+    private InventoryJdbcRepository inventoryJdbcRepository;
+
+    @Autowired
+    private InventoryLedgerRepository inventoryLedgerRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final Map<Long, AtomicIntegerArray> shardCounters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        reloadShards();
+    }
+
+    public boolean isSharded(Long productId) {
+        return shardCounters.containsKey(productId);
+    }
+
+    /**
+     * Takes the quantities of an order off stock, in product id order, and returns the
+     * products that do not have enough. Callers roll back their transaction when any is
+     * returned.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public List<Long> takeAll(Long orderId, Map<Long, Integer> quantities) {
+        Map<Long, Integer> unsharded = new HashMap<>();
+        Map<Long, Integer> sharded = new TreeMap<>();
+        quantities.forEach((productId, quantity) -> (isSharded(productId) ? sharded : unsharded).put(productId, quantity));
+
+        List<Long> insufficient = unsharded.isEmpty()
+                ? new ArrayList<>() : new ArrayList<>(inventoryJdbcRepository.decrementAll(unsharded));
+        sharded.forEach((productId, quantity) -> {
+            if (!takeFromShards(productId, quantity)) {
+                insufficient.add(productId);
+            }
+        });
+        if (insufficient.isEmpty()) {
+            inventoryLedgerRepository.append(InventoryMovementDto.Type.SALE, negated(quantities), orderId);
+        }
+        return insufficient;
+    }
+
+    /**
+     * Puts the quantities of a cancelled order back on stock, a sharded product's onto
+     * its emptiest shard.
+     */
+    @Transactional
+    public void returnAll(Long orderId, Map<Long, Integer> quantities) {
+        Map<Long, Integer> unsharded = new HashMap<>();
+        quantities.forEach((productId, quantity) -> {
+            AtomicIntegerArray counters = shardCounters.get(productId);
+            if (counters == null) {
+                unsharded.put(productId, quantity);
+                return;
+            }
+            int emptiest = 0;
+            for (int shard = 1; shard < counters.length(); shard++) {
+                if (counters.get(shard) < counters.get(emptiest)) {
+                    emptiest = shard;
+                }
+            }
+            counters.set(emptiest, inventoryJdbcRepository.addToShard(productId, emptiest, quantity));
+        });
+        if (!unsharded.isEmpty()) {
+            inventoryJdbcRepository.incrementAll(unsharded);
+        }
+        inventoryLedgerRepository.append(InventoryMovementDto.Type.CANCEL, quantities, orderId);
+    }
+
+    /**
+     * Sets the product's stock, spread over its shards when it has any, and returns what
+     * the product row holds now.
+     */
+    @Transactional
+    public int setStock(Long productId, int stock) {
+        return applyStock(productId, stock, InventoryMovementDto.Type.ADJUSTMENT);
+    }
+
+    /**
+     * Records the stock a product was created with, the product row already holds it.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordCreated(Long productId, int stock) {
+        inventoryLedgerRepository.append(InventoryMovementDto.Type.ADJUSTMENT, Map.of(productId, stock), null);
+    }
+
+    /**
+     * Splits the product's stock over {@code shardCount} shards, or merges it back into
+     * the product row for fewer than two. {@code total} replaces the stock when given.
+     */
+    @Transactional
+    public int[] reshard(Long productId, int shardCount, Integer total) {
+        int current = inventoryJdbcRepository.lockStock(productId);
+        int stock = total != null ? total : current;
+        int[] shards = inventoryJdbcRepository.reshard(productId, shardCount, stock);
+        inventoryLedgerRepository.append(InventoryMovementDto.Type.ADJUSTMENT, Map.of(productId, stock - current), null);
+        if (shards.length == 0) {
+            shardCounters.remove(productId);
+        } else {
+            shardCounters.put(productId, new AtomicIntegerArray(shards));
+        }
+        eventPublisher.publishEvent(CatalogChangedEvent.stock(List.of(productId)));
+        return shards;
+    }
+
+    public int[] getShards(Long productId) {
+        AtomicIntegerArray counters = shardCounters.get(productId);
+        int[] shards = new int[counters != null ? counters.length() : 0];
+        for (int shard = 0; shard < shards.length; shard++) {
+            shards[shard] = counters.get(shard);
+        }
+        return shards;
+    }
+
+    public List<InventoryMovementDto> getMovements(Long productId, Long afterId, int limit) {
+        return inventoryLedgerRepository.findMovements(productId, afterId, Math.max(1, Math.min(limit, MAX_MOVEMENTS)));
+    }
+
+    public List<InventoryDriftDto> getDrift() {
+        return inventoryLedgerRepository.findDrift();
+    }
+
+    /**
+     * Sets the stock of every product whose stock disagrees with its ledger to what the
+     * ledger replays to, and returns what was corrected.
+     */
+    public List<InventoryDriftDto> rebuildFromLedger() {
+        List<InventoryDriftDto> corrected = new ArrayList<>();
+        for (InventoryDriftDto drift : inventoryLedgerRepository.findDrift()) {
+            InventoryDriftDto fixed = transactionTemplate.execute(status -> rebuildStock(drift.getProductId()));
+            if (fixed != null) {
+                corrected.add(fixed);
+            }
+        }
+        return corrected;
+    }
+
+    // With the stock locked, checkouts running meanwhile are either in both or in neither
+    private InventoryDriftDto rebuildStock(Long productId) {
+        inventoryJdbcRepository.lockStock(productId);
+        InventoryDriftDto drift = inventoryLedgerRepository.findStock(productId);
+        if (drift == null || drift.getLedgerStock() == drift.getStock()) {
+            return null;
+        }
+        applyStock(productId, Math.toIntExact(drift.getLedgerStock()), null);
+        return drift;
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.ledger.snapshot-ms:300000}")
+    public void snapshotLedger() {
+        inventoryLedgerRepository.openUntracked();
+        inventoryLedgerRepository.takeSnapshots(LocalDateTime.now().minus(snapshotLagMillis, ChronoUnit.MILLIS));
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.shards.rebalance-ms:5000}")
+    public void rebalance() {
+        for (Map.Entry<Long, int[]> entry : reloadShards().entrySet()) {
+            int[] shards = entry.getValue();
+            long total = 0;
+            int emptiest = Integer.MAX_VALUE;
+            for (int quantity : shards) {
+                total += quantity;
+                emptiest = Math.min(emptiest, quantity);
+            }
+            // Only when a shard fell well behind its fair share, an even split is not the goal
+            if (emptiest < total / shards.length * rebalanceSkew) {
+                shardCounters.put(entry.getKey(), new AtomicIntegerArray(inventoryJdbcRepository.rebalanceShards(entry.getKey())));
+            }
+        }
+    }
+
+    // Movement of the given type for the difference, none when rebuilding from the ledger
+    private int applyStock(Long productId, int stock, InventoryMovementDto.Type type) {
+        int current = inventoryJdbcRepository.lockStock(productId);
+        AtomicIntegerArray counters = shardCounters.get(productId);
+        int inventory = stock;
+        if (counters != null) {
+            shardCounters.put(productId, new AtomicIntegerArray(
+                    inventoryJdbcRepository.reshard(productId, counters.length(), stock)));
+            inventory = 0;
+        } else {
+            inventoryJdbcRepository.setStock(productId, stock);
+        }
+        if (type != null) {
+            inventoryLedgerRepository.append(type, Map.of(productId, stock - current), null);
+        }
+        eventPublisher.publishEvent(CatalogChangedEvent.stock(List.of(productId)));
+        return inventory;
+    }
+
+    private static Map<Long, Integer> negated(Map<Long, Integer> quantities) {
+        Map<Long, Integer> changes = new HashMap<>();
+        quantities.forEach((productId, quantity) -> changes.put(productId, -quantity));
+        return changes;
+    }
+
+    private boolean takeFromShards(Long productId, int quantity) {
+        AtomicIntegerArray counters = shardCounters.get(productId);
+        int shardCount = counters.length();
+        // Random starting shard, so concurrent checkouts spread over the rows
+        int start = ThreadLocalRandom.current().nextInt(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            int shard = (start + i) % shardCount;
+            if (counters.get(shard) < quantity) {
+                continue;
+            }
+            Integer left = inventoryJdbcRepository.takeFromShard(productId, shard, quantity);
+            if (left != null) {
+                counters.set(shard, left);
+                restoreOnRollback(counters, shard, quantity);
+                return true;
+            }
+            // Known to hold less than the quantity now
+            counters.set(shard, Math.min(counters.get(shard), quantity - 1));
+        }
+
+        // No single shard has enough, which only gets common when the product sells out
+        InventoryJdbcRepository.ShardsTaken shards = inventoryJdbcRepository.takeFromShards(productId, quantity);
+        if (shards == null) {
+            return false;
+        }
+        for (int shard = 0; shard < Math.min(shards.getLeft().length, shardCount); shard++) {
+            counters.set(shard, shards.getLeft()[shard]);
+            if (shards.getTaken()[shard] > 0) {
+                restoreOnRollback(counters, shard, shards.getTaken()[shard]);
+            }
+        }
+        return true;
+    }
+
+    private void restoreOnRollback(AtomicIntegerArray counters, int shard, int quantity) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    counters.addAndGet(shard, quantity);
+                }
+            }
+        });
+    }
+
+    private Map<Long, int[]> reloadShards() {
+        Map<Long, int[]> shards = inventoryJdbcRepository.findAllShards();
+        shards.forEach((productId, quantities) -> shardCounters.put(productId, new AtomicIntegerArray(quantities)));
+        shardCounters.keySet().retainAll(shards.keySet());
+        return shards;
+    }
+}
@@ -0,0 +1,144 @@
+
+package com.socksbox.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.socksbox.event.CatalogChangedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps hot read responses as already-serialized JSON bytes, plus a gzip copy when
+ * the body is big enough to be worth compressing, so repeated reads skip DTO mapping
+ * and Jackson entirely and the bytes are copied straight to the response.
+ * <p>
+ * Entries are dropped by the catalog write paths. Every invalidation bumps a
+ * generation counter and a load only stores its result if no invalidation happened
+ * while it was running, so a slow read can never put stale bytes back.
+ */
+@Component
+public class JsonResponseCache {
+
+    public static final String FEATURED_PRODUCTS = "products:featured";
+    public static final String CATEGORIES = "categories";
+    public static final String BRANDS = "brands";
+
+    private static final int GZIP_MIN_BYTES = 1024;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<String, CachedJson> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    public static String product(Long id) {
+        return "product:" + id;
+    }
+
+    public CachedJson get(String key, Supplier<?> loader) {
+        CachedJson cached = entries.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long loadedAt = generation.get();
+        CachedJson loaded = serialize(loader.get());
+        synchronized (this) {
+            if (generation.get() == loadedAt) {
+                entries.put(key, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    public synchronized void invalidate(String... keys) {
+        generation.incrementAndGet();
+        for (String key : keys) {
+            entries.remove(key);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    // Runs after CatalogSnapshot so a reload right after eviction sees the new view,
+    // and before CatalogVersion so a new ETag is never served with old bytes
+    @Order(0)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        if (event.isFullReload()) {
+            invalidateAll();
+            return;
+        }
+        String[] keys = new String[event.getProductIds().size() + 1];
+        int i = 0;
+        for (Long id : event.getProductIds()) {
+            keys[i++] = product(id);
+        }
+        keys[i] = FEATURED_PRODUCTS;
+        invalidate(keys);
+    }
+
+    private CachedJson serialize(Object value) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(value);
+            return new CachedJson(json, json.length >= GZIP_MIN_BYTES ? gzip(json) : null);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize cached response", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(json.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    public static boolean acceptsGzip(String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    public static final class CachedJson {
+
+        private final byte[] json;
+        private final byte[] gzip;
+
+        private CachedJson(byte[] json, byte[] gzip) {
+            this.json = json;
+            this.gzip = gzip;
+        }
+
+        /**
+         * Builds a response around the cached bytes, using the gzip copy when the client accepts it.
+         */
+        public ResponseEntity<byte[]> toResponse(String acceptEncoding) {
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (gzip != null && acceptsGzip(acceptEncoding)) {
+                return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(gzip);
+            }
+            return response.body(json);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+
+package com.socksbox.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.socksbox.dto.OrderPlacedDto;
+import com.socksbox.event.CatalogChangedEvent;
+import com.socksbox.repository.OrderOutboxRepository;
+import com.socksbox.repository.OrderOutboxRepository.OutboxEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The steps of placing an order that do not have to finish before checkout answers.
+ * Checkout only writes the order and an {@code ORDER_PLACED} event into the outbox, in
+ * its own transaction, and a background dispatcher works through the outbox in batches:
+ * it clears the ordered lines from the cart and invalidates the catalog caches once for
+ * all products of the batch.
+ * <p>
+ * A user has at most one pending {@code ORDER_PLACED} event. A new order's event takes
+ * over the quantities and products of the pending one, and checkout only orders what the
+ * cart holds beyond them, so a retrying event never blocks the next checkout and never
+ * gets its lines ordered twice.
+ * <p>
+ * Events are delivered at least once, an event whose dispatcher dies before marking it
+ * is claimed again once its lease ends, so every step must be safe to repeat. Every event
+ * runs in a transaction of its own: a failing one is rolled back and retried with backoff
+ * without taking the rest of the batch down with it.
+ */
+@Service
+public class OrderOutboxService {
+
+    public static final String ORDER_PLACED = "ORDER_PLACED";
+
+    private static final Logger log = LoggerFactory.getLogger(OrderOutboxService.class);
+
+    // Batches per poll, so a backlog drains without starving the other scheduled jobs
+    private static final int MAX_BATCHES_PER_POLL = 10;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    @Value("${order.outbox.batch-size:100}")
+    private int batchSize;
+
+    @Value("${order.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${order.outbox.lease-ms:300000}")
+    private long leaseMillis;
+
+    @Value("${order.outbox.retention-hours:24}")
+    private long retentionHours;
+
+    @Autowired
+    private OrderOutboxRepository orderOutboxRepository;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Holds off other checkouts and the dispatcher for the user until the transaction
+     * ends, and returns the cart lines and quantities of the user's pending order, which
+     * the outbox has not cleared from the cart yet.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<Long, Integer> lockPendingOrder(Long userId) {
+        orderOutboxRepository.lockUser(userId);
+        return pendingOrder(orderOutboxRepository.findPending(userId, ORDER_PLACED)).getCartItemQuantities();
+    }
+
+    /**
+     * Records that an order was placed from the given cart lines and quantities, in the
+     * transaction creating the order and after {@link #lockPendingOrder}. The ordered lines
+     * leave the cart as soon as the order commits, the event clears them again should
+     * that fail.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void orderPlaced(Long orderId, Long userId, Map<Long, Integer> cartItemQuantities, List<Long> productIds) {
+        List<OutboxEvent> pending = orderOutboxRepository.findPending(userId, ORDER_PLACED);
+        OrderPlacedDto placed = pendingOrder(pending);
+        cartItemQuantities.forEach((itemId, quantity) -> placed.getCartItemQuantities().merge(itemId, quantity, Integer::sum));
+        Set<Long> allProductIds = new LinkedHashSet<>(placed.getProductIds());
+        allProductIds.addAll(productIds);
+        placed.setProductIds(new ArrayList<>(allProductIds));
+
+        for (OutboxEvent event : pending) {
+            orderOutboxRepository.markProcessed(event.getId());
+        }
+        try {
+            orderOutboxRepository.append(ORDER_PLACED, orderId, userId, objectMapper.writeValueAsString(placed));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Order event cannot be stored", e);
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    cartService.removeOrderedItems(userId, placed.getCartItemQuantities());
+                } catch (RuntimeException e) {
+                    log.warn("Could not clear the cart of order {}, the outbox will", orderId, e);
+                }
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${order.outbox.poll-ms:200}")
+    public void dispatch() {
+        for (int batch = 0; batch < MAX_BATCHES_PER_POLL; batch++) {
+            if (dispatchBatch() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${order.outbox.purge-interval-ms:3600000}")
+    public void purgeProcessed() {
+        orderOutboxRepository.deleteProcessedBefore(LocalDateTime.now().minusHours(retentionHours));
+    }
+
+    private int dispatchBatch() {
+        List<OutboxEvent> events = orderOutboxRepository.claim(batchSize,
+                LocalDateTime.now().plus(leaseMillis, ChronoUnit.MILLIS));
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        Set<Long> productIds = new HashSet<>();
+        for (OutboxEvent event : events) {
+            try {
+                productIds.addAll(transactionTemplate.execute(status -> process(event)));
+            } catch (RuntimeException e) {
+                // After the rollback, an aborted transaction cannot record the failure
+                failed(event, e);
+            }
+        }
+
+        // One invalidation for the whole batch
+        if (!productIds.isEmpty()) {
+            eventPublisher.publishEvent(CatalogChangedEvent.stock(productIds));
+        }
+        return events.size();
+    }
+
+    private List<Long> process(OutboxEvent event) {
+        // A checkout holding the gate may have taken the event over
+        orderOutboxRepository.lockUser(event.getUserId());
+        if (!orderOutboxRepository.isPending(event.getId())) {
+            return List.of();
+        }
+        OrderPlacedDto placed;
+        try {
+            placed = objectMapper.readValue(event.getPayload(), OrderPlacedDto.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Order event cannot be read", e);
+        }
+        cartService.removeOrderedItems(event.getUserId(), placed.getCartItemQuantities());
+        // Stored with the event, the next checkout must not see one without the other
+        cartService.flushCart(event.getUserId());
+        orderOutboxRepository.markProcessed(event.getId());
+        return placed.getProductIds();
+    }
+
+    // What the events ordered together, quantities of the same cart line add up
+    private OrderPlacedDto pendingOrder(List<OutboxEvent> events) {
+        OrderPlacedDto pending = new OrderPlacedDto(new LinkedHashMap<>(), new ArrayList<>());
+        for (OutboxEvent event : events) {
+            try {
+                OrderPlacedDto placed = objectMapper.readValue(event.getPayload(), OrderPlacedDto.class);
+                placed.getCartItemQuantities().forEach((itemId, quantity) ->
+                        pending.getCartItemQuantities().merge(itemId, quantity, Integer::sum));
+                pending.getProductIds().addAll(placed.getProductIds());
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Order event cannot be read", e);
+            }
+        }
+        return pending;
+    }
+
+    private void failed(OutboxEvent event, Exception e) {
+        String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        int attempts = event.getAttempts() + 1;
+        if (attempts >= maxAttempts) {
+            log.error("Giving up on outbox event {} of order {} after {} attempts", event.getId(), event.getOrderId(),
+                    attempts, e);
+            orderOutboxRepository.markFailed(event.getId(), error);
+            return;
+        }
+        log.warn("Outbox event {} of order {} failed, will retry", event.getId(), event.getOrderId(), e);
+        long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, 1000L << Math.min(attempts, 16));
+        orderOutboxRepository.retryLater(event.getId(), error, LocalDateTime.now().plus(backoffMillis, ChronoUnit.MILLIS));
+    }
+}
@@ -3,16 +3,24 @@ package com.socksbox.service;
 
 import com.socksbox.dto.OrderDto;
 import com.socksbox.entity.*;
+import com.socksbox.event.CatalogChangedEvent;
+import com.socksbox.exception.InsufficientStockException;
 import com.socksbox.exception.ResourceNotFoundException;
 import com.socksbox.repository.CartRepository;
 import com.socksbox.repository.OrderRepository;
 import com.socksbox.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
@@ -30,6 +38,18 @@ public class OrderService {
     @Autowired
     private CartService cartService;
 
+    @Autowired
+    private InventoryService inventoryService;
+
+    @Autowired
+    private OrderOutboxService orderOutboxService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     public List<OrderDto> getOrdersByUserId(Long userId) {
         return orderRepository.findByUserIdOrderByDateDesc(userId).stream()
                 .map(this::convertToDto)
@@ -48,31 +68,57 @@ public class OrderService {
         return convertToDto(order);
     }
 
-    @Transactional
+    /**
+     * Places an order for what the user's cart holds beyond the lines of a pending order,
+     * which the outbox has yet to clear. The cart is flushed before the order's transaction
+     * opens, so checkout holds one connection at a time and a failed checkout keeps the
+     * flushed cart.
+     */
     public OrderDto createOrderFromCart(Long userId, Address shippingAddress) {
+        // The cart is written behind, make sure the database has its latest state
+        cartService.flushCart(userId);
+        return transactionTemplate.execute(status -> placeOrder(userId, shippingAddress));
+    }
+
+    private OrderDto placeOrder(Long userId, Address shippingAddress) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with id " + userId));
 
+        // One checkout of the user at a time. Lines of the pending order stay in the cart
+        // until the outbox clears them, only what the cart holds beyond that is ordered.
+        Map<Long, Integer> pending = orderOutboxService.lockPendingOrder(userId);
+
         Cart cart = cartRepository.findByUserId(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user " + userId));
 
-        if (cart.getItems().isEmpty()) {
+        List<CartItem> orderedItems = new ArrayList<>();
+        Map<Long, Integer> cartItemQuantities = new LinkedHashMap<>();
+        for (CartItem cartItem : cart.getItems()) {
+            int quantity = cartItem.getQuantity() - pending.getOrDefault(cartItem.getId(), 0);
+            if (quantity > 0) {
+                orderedItems.add(cartItem);
+                cartItemQuantities.put(cartItem.getId(), quantity);
+            }
+        }
+
+        if (orderedItems.isEmpty()) {
             throw new RuntimeException("Cannot create order from empty cart");
         }
 
         Order order = new Order();
         order.setUser(user);
         order.setShippingAddress(shippingAddress);
-        order.setTotalAmount(cart.getTotalAmount());
+        BigDecimal totalAmount = BigDecimal.ZERO;
 
         // Create order items from cart items
-        for (CartItem cartItem : cart.getItems()) {
+        for (CartItem cartItem : orderedItems) {
+            int quantity = cartItemQuantities.get(cartItem.getId());
             OrderItem orderItem = new OrderItem();
             orderItem.setOrder(order);
             orderItem.setProduct(cartItem.getProduct());
             orderItem.setName(cartItem.getProduct().getName());
             orderItem.setPrice(cartItem.getPrice());
-            orderItem.setQuantity(cartItem.getQuantity());
+            orderItem.setQuantity(quantity);
             orderItem.setColor(cartItem.getColor());
             orderItem.setSize(cartItem.getSize());
             
@@ -81,20 +127,46 @@ public class OrderService {
             }
             
             order.getItems().add(orderItem);
+            totalAmount = totalAmount.add(cartItem.getPrice().multiply(BigDecimal.valueOf(quantity)));
         }
+        order.setTotalAmount(totalAmount);
 
         Order savedOrder = orderRepository.save(order);
 
-        // Clear the cart
-        cartService.clearCart(userId);
+        // One conditional update per product, all or nothing with the rest of the order
+        Map<Long, Integer> quantities = new HashMap<>();
+        Map<Long, Product> products = new HashMap<>();
+        for (CartItem cartItem : orderedItems) {
+            quantities.merge(cartItem.getProduct().getId(), cartItemQuantities.get(cartItem.getId()), Integer::sum);
+            products.put(cartItem.getProduct().getId(), cartItem.getProduct());
+        }
+        List<Long> insufficient = inventoryService.takeAll(savedOrder.getId(), quantities);
+        if (!insufficient.isEmpty()) {
+            throw new InsufficientStockException("Not enough stock available for product "
+                    + products.get(insufficient.get(0)).getName());
+        }
+
+        // The cart is cleared once this commits, the catalog caches later from the outbox
+        orderOutboxService.orderPlaced(savedOrder.getId(), userId, cartItemQuantities, new ArrayList<>(quantities.keySet()));
 
         return convertToDto(savedOrder);
     }
 
+    @Transactional
     public OrderDto updateOrderStatus(Long orderId, Order.Status status) {
         Order order = orderRepository.findById(orderId)
                 .orElseThrow(() -> new ResourceNotFoundException("Order not found with id " + orderId));
 
+        // Checkout took the stock, a cancelled order gives it back
+        if (status == Order.Status.CANCELLED && order.getStatus() != Order.Status.CANCELLED) {
+            Map<Long, Integer> quantities = new HashMap<>();
+            for (OrderItem orderItem : order.getItems()) {
+                quantities.merge(orderItem.getProduct().getId(), orderItem.getQuantity(), Integer::sum);
+            }
+            inventoryService.returnAll(orderId, quantities);
+            eventPublisher.publishEvent(CatalogChangedEvent.stock(quantities.keySet()));
+        }
+
         order.setStatus(status);
         Order updatedOrder = orderRepository.save(order);
         return convertToDto(updatedOrder);
@@ -0,0 +1,105 @@
+
+package com.socksbox.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.socksbox.dto.ProductDto;
+import com.socksbox.repository.ProductReadRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Full catalog export for partners. Rows come off a forward-only cursor and are
+ * written to the response as they arrive, so memory use does not grow with the
+ * size of the catalog. The columns match what {@link ProductImportService} reads.
+ */
+@Service
+public class ProductExportService {
+
+    private static final String CSV_HEADER =
+            "id,name,description,price,inventory,featured,categoryId,category,brandId,brand,images,colors,sizes";
+
+    @Autowired
+    private ProductReadRepository productReadRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Transactional(readOnly = true)
+    public void exportProducts(OutputStream outputStream, ProductFileFormat format, boolean gzip) throws IOException {
+        GZIPOutputStream compressed = gzip ? new GZIPOutputStream(outputStream, 64 * 1024) : null;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                compressed != null ? compressed : outputStream, StandardCharsets.UTF_8), 64 * 1024);
+
+        if (format == ProductFileFormat.CSV) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+        try {
+            productReadRepository.streamAll(product -> {
+                try {
+                    if (format == ProductFileFormat.CSV) {
+                        writeCsvRow(writer, product);
+                    } else {
+                        writer.write(objectMapper.writeValueAsString(product));
+                        writer.write('\n');
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        writer.flush();
+        if (compressed != null) {
+            compressed.finish();
+        }
+    }
+
+    private static void writeCsvRow(Writer writer, ProductDto product) throws IOException {
+        writer.write(String.valueOf(product.getId()));
+        writeCsvField(writer, product.getName());
+        writeCsvField(writer, product.getDescription());
+        writeCsvField(writer, product.getPrice() != null ? product.getPrice().toPlainString() : null);
+        writeCsvField(writer, String.valueOf(product.getInventory()));
+        writeCsvField(writer, String.valueOf(product.getFeatured()));
+        writeCsvField(writer, product.getCategoryId() != null ? product.getCategoryId().toString() : null);
+        writeCsvField(writer, product.getCategoryName());
+        writeCsvField(writer, product.getBrandId() != null ? product.getBrandId().toString() : null);
+        writeCsvField(writer, product.getBrandName());
+        writeCsvField(writer, joinList(product.getImages()));
+        writeCsvField(writer, joinList(product.getColors()));
+        writeCsvField(writer, joinList(product.getSizes()));
+        writer.write('\n');
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        writer.write(',');
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        } else {
+            writer.write(value);
+        }
+    }
+
+    private static String joinList(List<String> values) {
+        return values == null || values.isEmpty() ? null : String.join("|", values);
+    }
+}
@@ -0,0 +1,184 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.FacetedProductsDto;
+import com.socksbox.dto.ProductDto;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bitmap index over the products of one {@link CatalogSnapshot.View}. Every product
+ * gets a dense ordinal (its position in the snapshot) and every facet value keeps a
+ * {@link BitSet} of the ordinals that carry it, so any filter combination is a handful
+ * of word-wise AND/OR operations and facet counts are intersection cardinalities.
+ * <p>
+ * Values inside one facet are OR'ed, facets are AND'ed together. Counts for a facet
+ * ignore that facet's own selection, so picking one color still shows how many
+ * products every other color would add.
+ */
+public final class ProductFacetIndex {
+
+    public static final String CATEGORY = "category";
+    public static final String BRAND = "brand";
+    public static final String COLOR = "color";
+    public static final String SIZE = "size";
+    public static final String PRICE = "price";
+
+    private static final String[] FACETS = {CATEGORY, BRAND, COLOR, SIZE, PRICE};
+
+    // Upper bounds of the price buckets, the last bucket is open-ended
+    private static final BigDecimal[] PRICE_BOUNDS = {
+            new BigDecimal("10"), new BigDecimal("25"), new BigDecimal("50"), new BigDecimal("100")
+    };
+
+    private final List<ProductDto> products;
+    private final BitSet everything;
+    private final Map<String, Map<String, BitSet>> bitmaps = new LinkedHashMap<>();
+    private final Map<String, BigDecimal[]> priceBucketRanges = new HashMap<>();
+
+    ProductFacetIndex(List<ProductDto> products) {
+        this.products = products;
+        this.everything = new BitSet(products.size());
+        this.everything.set(0, products.size());
+
+        for (String facet : FACETS) {
+            bitmaps.put(facet, new LinkedHashMap<>());
+        }
+        for (int i = 0; i <= PRICE_BOUNDS.length; i++) {
+            BigDecimal lower = i == 0 ? BigDecimal.ZERO : PRICE_BOUNDS[i - 1];
+            BigDecimal upper = i == PRICE_BOUNDS.length ? null : PRICE_BOUNDS[i];
+            String label = upper == null ? lower.toPlainString() + "+" : lower.toPlainString() + "-" + upper.toPlainString();
+            bitmaps.get(PRICE).put(label, new BitSet());
+            priceBucketRanges.put(label, new BigDecimal[]{lower, upper});
+        }
+
+        for (int ordinal = 0; ordinal < products.size(); ordinal++) {
+            ProductDto product = products.get(ordinal);
+            if (product.getCategoryId() != null) {
+                mark(CATEGORY, product.getCategoryId().toString(), ordinal);
+            }
+            if (product.getBrandId() != null) {
+                mark(BRAND, product.getBrandId().toString(), ordinal);
+            }
+            for (String color : product.getColors()) {
+                mark(COLOR, normalize(color), ordinal);
+            }
+            for (String size : product.getSizes()) {
+                mark(SIZE, normalize(size), ordinal);
+            }
+            if (product.getPrice() != null) {
+                mark(PRICE, priceBucket(product.getPrice()), ordinal);
+            }
+        }
+    }
+
+    /**
+     * @param selections selected values per facet, facets that are absent or empty are not filtered on
+     */
+    public FacetedProductsDto filter(Map<String, ? extends Collection<String>> selections,
+                                     BigDecimal minPrice, BigDecimal maxPrice) {
+        Map<String, BitSet> constraints = new LinkedHashMap<>();
+        for (String facet : new String[]{CATEGORY, BRAND, COLOR, SIZE}) {
+            Collection<String> selected = selections.get(facet);
+            if (selected != null && !selected.isEmpty()) {
+                BitSet union = new BitSet(products.size());
+                for (String value : selected) {
+                    BitSet bitmap = bitmaps.get(facet).get(normalize(value));
+                    if (bitmap != null) {
+                        union.or(bitmap);
+                    }
+                }
+                constraints.put(facet, union);
+            }
+        }
+        if (minPrice != null || maxPrice != null) {
+            constraints.put(PRICE, priceRange(minPrice, maxPrice));
+        }
+
+        BitSet matches = intersect(constraints, null);
+        List<ProductDto> items = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            items.add(products.get(i));
+        }
+
+        Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+        for (String facet : FACETS) {
+            BitSet base = constraints.containsKey(facet) ? intersect(constraints, facet) : matches;
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            bitmaps.get(facet).forEach((value, bitmap) -> {
+                BitSet hits = (BitSet) bitmap.clone();
+                hits.and(base);
+                int count = hits.cardinality();
+                if (count > 0) {
+                    counts.put(value, count);
+                }
+            });
+            facets.put(facet, counts);
+        }
+
+        return new FacetedProductsDto(items, items.size(), facets);
+    }
+
+    private BitSet intersect(Map<String, BitSet> constraints, String excludedFacet) {
+        BitSet result = (BitSet) everything.clone();
+        constraints.forEach((facet, bitmap) -> {
+            if (!facet.equals(excludedFacet)) {
+                result.and(bitmap);
+            }
+        });
+        return result;
+    }
+
+    private BitSet priceRange(BigDecimal minPrice, BigDecimal maxPrice) {
+        BitSet result = new BitSet(products.size());
+        bitmaps.get(PRICE).forEach((label, bitmap) -> {
+            BigDecimal[] range = priceBucketRanges.get(label);
+            boolean overlaps = (maxPrice == null || range[0].compareTo(maxPrice) <= 0)
+                    && (minPrice == null || range[1] == null || range[1].compareTo(minPrice) > 0);
+            if (!overlaps) {
+                return;
+            }
+            boolean contained = (minPrice == null || range[0].compareTo(minPrice) >= 0)
+                    && (maxPrice == null || (range[1] != null && range[1].compareTo(maxPrice) <= 0));
+            if (contained) {
+                result.or(bitmap);
+                return;
+            }
+            // Edge bucket, check the products in it one by one
+            for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1)) {
+                BigDecimal price = products.get(i).getPrice();
+                if ((minPrice == null || price.compareTo(minPrice) >= 0)
+                        && (maxPrice == null || price.compareTo(maxPrice) <= 0)) {
+                    result.set(i);
+                }
+            }
+        });
+        return result;
+    }
+
+    private void mark(String facet, String value, int ordinal) {
+        bitmaps.get(facet).computeIfAbsent(value, k -> new BitSet()).set(ordinal);
+    }
+
+    private static String priceBucket(BigDecimal price) {
+        for (int i = 0; i < PRICE_BOUNDS.length; i++) {
+            if (price.compareTo(PRICE_BOUNDS[i]) < 0) {
+                BigDecimal lower = i == 0 ? BigDecimal.ZERO : PRICE_BOUNDS[i - 1];
+                return lower.toPlainString() + "-" + PRICE_BOUNDS[i].toPlainString();
+            }
+        }
+        return PRICE_BOUNDS[PRICE_BOUNDS.length - 1].toPlainString() + "+";
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
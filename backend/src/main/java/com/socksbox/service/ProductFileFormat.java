@@ -0,0 +1,37 @@
+
+package com.socksbox.service;
+
+/**
+ * File formats for bulk product import and export. Both use the same columns, so an
+ * export can be loaded back through the import.
+ */
+public enum ProductFileFormat {
+
+    CSV("text/csv", "csv"),
+    JSONL("application/x-ndjson", "jsonl");
+
+    private final String contentType;
+    private final String extension;
+
+    ProductFileFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public static ProductFileFormat fromName(String name) {
+        for (ProductFileFormat format : values()) {
+            if (format.extension.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new RuntimeException("Unsupported product file format " + name + ", expected csv or jsonl");
+    }
+}
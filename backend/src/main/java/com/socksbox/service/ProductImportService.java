@@ -0,0 +1,343 @@
+
+package com.socksbox.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.socksbox.dto.ProductDto;
+import com.socksbox.dto.ProductImportErrorDto;
+import com.socksbox.dto.ProductImportResultDto;
+import com.socksbox.entity.Brand;
+import com.socksbox.entity.Category;
+import com.socksbox.event.CatalogChangedEvent;
+import com.socksbox.repository.BrandRepository;
+import com.socksbox.repository.CategoryRepository;
+import com.socksbox.repository.ProductWriteRepository;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bulk product import for admins. The upload is read line by line, so a file of any
+ * size only ever holds one batch in memory. Categories and brands are resolved from
+ * maps loaded once per import, and valid rows are written through
+ * {@link ProductWriteRepository} in batches of {@value #BATCH_SIZE}.
+ * <p>
+ * CSV needs a header row; list columns (images, colors, sizes) separate their values
+ * with {@code |}. JSONL takes one {@link ProductDto} object per line.
+ */
+@Service
+public class ProductImportService {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    // A quoted field longer than this is taken for a stray quote
+    private static final int MAX_RECORD_LINES = 100;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    @Autowired
+    private ProductWriteRepository productWriteRepository;
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private BrandRepository brandRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    public ProductImportResultDto importProducts(InputStream input, ProductFileFormat format) throws IOException {
+        long started = System.nanoTime();
+        Import run = new Import();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String[] header = null;
+        String line;
+        long lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            long firstLine = lineNumber;
+            if (line.isBlank()) {
+                continue;
+            }
+            if (format == ProductFileFormat.CSV && oddQuotes(line)) {
+                // A quoted field may contain line breaks, keep reading until the quotes balance
+                StringBuilder record = new StringBuilder(line);
+                boolean open = true;
+                boolean tooLong = false;
+                while (open) {
+                    if (lineNumber - firstLine + 1 >= MAX_RECORD_LINES || record.length() > MAX_RECORD_LENGTH) {
+                        tooLong = true;
+                        break;
+                    }
+                    String next = reader.readLine();
+                    if (next == null) {
+                        break;
+                    }
+                    record.append('\n').append(next);
+                    lineNumber++;
+                    // Only the new line's quotes can close the field, the record is never scanned again
+                    open = !oddQuotes(next);
+                }
+                if (open) {
+                    // The quote does not close, so what follows cannot be told apart from this record
+                    String message = tooLong
+                            ? "Quoted field starting on line " + firstLine + " is not closed within "
+                                    + MAX_RECORD_LINES + " lines or " + MAX_RECORD_LENGTH + " characters, lines from "
+                                    + firstLine + " on were not imported"
+                            : "Unterminated quoted field starting on line " + firstLine
+                                    + ", lines " + firstLine + " to " + lineNumber + " were not imported";
+                    if (header == null) {
+                        throw new IllegalArgumentException(message);
+                    }
+                    run.reject(firstLine, message);
+                    break;
+                }
+                line = record.toString();
+            }
+            if (format == ProductFileFormat.CSV && header == null) {
+                header = parseCsvLine(line).toArray(new String[0]);
+                continue;
+            }
+            try {
+                ProductDto product = format == ProductFileFormat.CSV
+                        ? fromCsv(header, parseCsvLine(line))
+                        : objectMapper.readValue(line, ProductDto.class);
+                run.add(firstLine, product);
+            } catch (IOException | IllegalArgumentException e) {
+                run.reject(firstLine, "Could not parse row: " + e.getMessage());
+            }
+        }
+        run.flush();
+
+        if (run.imported > 0) {
+            // Bulk write, reload every catalog view at once
+            eventPublisher.publishEvent(CatalogChangedEvent.all());
+        }
+
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        double rowsPerSecond = elapsedMillis == 0 ? run.imported : run.imported * 1000.0 / elapsedMillis;
+        return new ProductImportResultDto(run.imported, run.failed, run.errors, elapsedMillis, rowsPerSecond);
+    }
+
+    private ProductDto fromCsv(String[] header, List<String> values) {
+        if (values.size() != header.length) {
+            throw new IllegalArgumentException("expected " + header.length + " columns but found " + values.size());
+        }
+        ProductDto product = new ProductDto();
+        for (int i = 0; i < header.length; i++) {
+            String value = values.get(i).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            switch (header[i].trim().toLowerCase(Locale.ROOT)) {
+                case "id" -> {
+                    // Exports carry the source id, imported products always get a new one
+                }
+                case "name" -> product.setName(value);
+                case "description" -> product.setDescription(value);
+                case "price" -> product.setPrice(new BigDecimal(value));
+                case "inventory" -> product.setInventory(Integer.parseInt(value));
+                case "featured" -> product.setFeatured(Boolean.parseBoolean(value));
+                case "categoryid" -> product.setCategoryId(Long.parseLong(value));
+                case "category", "categoryname" -> product.setCategoryName(value);
+                case "brandid" -> product.setBrandId(Long.parseLong(value));
+                case "brand", "brandname" -> product.setBrandName(value);
+                case "images" -> product.setImages(splitList(value));
+                case "colors" -> product.setColors(splitList(value));
+                case "sizes" -> product.setSizes(splitList(value));
+                default -> throw new IllegalArgumentException("unknown column " + header[i]);
+            }
+        }
+        return product;
+    }
+
+    private static List<String> splitList(String value) {
+        List<String> items = new ArrayList<>();
+        for (String item : value.split("\\|")) {
+            if (!item.isBlank()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    // Doubled quotes inside a quoted field come in pairs, so a line with an odd count opens
+    // or closes a field
+    private static boolean oddQuotes(String line) {
+        boolean odd = false;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '"') {
+                odd = !odd;
+            }
+        }
+        return odd;
+    }
+
+    /**
+     * Splits one CSV record, honouring quoted fields and doubled quotes.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * State of one import: lookup maps, the pending batch and the running totals.
+     */
+    private final class Import {
+
+        private final Map<String, Category> categoriesByName = new HashMap<>();
+        private final Map<Long, Category> categoriesById = new HashMap<>();
+        private final Map<String, Brand> brandsByName = new HashMap<>();
+        private final Map<Long, Brand> brandsById = new HashMap<>();
+
+        private final List<ProductDto> batch = new ArrayList<>(BATCH_SIZE);
+        private final List<Long> batchLines = new ArrayList<>(BATCH_SIZE);
+        private final List<ProductImportErrorDto> errors = new ArrayList<>();
+        private int imported;
+        private int failed;
+
+        private Import() {
+            for (Category category : categoryRepository.findAll()) {
+                categoriesByName.put(category.getName().toLowerCase(Locale.ROOT), category);
+                categoriesById.put(category.getId(), category);
+            }
+            for (Brand brand : brandRepository.findAll()) {
+                brandsByName.put(brand.getName().toLowerCase(Locale.ROOT), brand);
+                brandsById.put(brand.getId(), brand);
+            }
+        }
+
+        void add(long line, ProductDto product) {
+            String problem = validate(product);
+            if (problem != null) {
+                reject(line, problem);
+                return;
+            }
+            batch.add(product);
+            batchLines.add(line);
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                productWriteRepository.insertAll(batch);
+                imported += batch.size();
+            } catch (DataAccessException e) {
+                // The batch was rolled back as a whole, so every row in it failed
+                String message = "Batch rejected by the database: " + e.getMostSpecificCause().getMessage();
+                for (Long line : batchLines) {
+                    reject(line, message);
+                }
+            }
+            batch.clear();
+            batchLines.clear();
+        }
+
+        void reject(long line, String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new ProductImportErrorDto(line, message));
+            }
+        }
+
+        private String validate(ProductDto product) {
+            Set<ConstraintViolation<ProductDto>> violations = validator.validate(product);
+            if (!violations.isEmpty()) {
+                return violations.iterator().next().getMessage();
+            }
+            if (product.getInventory() == null) {
+                product.setInventory(0);
+            } else if (product.getInventory() < 0) {
+                return "Inventory must not be negative";
+            }
+            if (product.getFeatured() == null) {
+                product.setFeatured(false);
+            }
+            if (product.getImages() == null) {
+                product.setImages(new ArrayList<>());
+            }
+            if (product.getColors() == null) {
+                product.setColors(new ArrayList<>());
+            }
+            if (product.getSizes() == null) {
+                product.setSizes(new ArrayList<>());
+            }
+
+            if (product.getCategoryId() != null || product.getCategoryName() != null) {
+                Category category = product.getCategoryId() != null
+                        ? categoriesById.get(product.getCategoryId())
+                        : categoriesByName.get(product.getCategoryName().toLowerCase(Locale.ROOT));
+                if (category == null) {
+                    return "Category not found: " + (product.getCategoryId() != null
+                            ? product.getCategoryId() : product.getCategoryName());
+                }
+                product.setCategoryId(category.getId());
+            }
+            if (product.getBrandId() != null || product.getBrandName() != null) {
+                Brand brand = product.getBrandId() != null
+                        ? brandsById.get(product.getBrandId())
+                        : brandsByName.get(product.getBrandName().toLowerCase(Locale.ROOT));
+                if (brand == null) {
+                    return "Brand not found: " + (product.getBrandId() != null
+                            ? product.getBrandId() : product.getBrandName());
+                }
+                product.setBrandId(brand.getId());
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.ProductDto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Immutable inverted index over product name, description, category name and brand
+ * name, ranked with BM25. Query terms match index terms exactly or by prefix, and a
+ * product has to match every query term to be returned.
+ * <p>
+ * Updates never touch a published index: {@link #update} copies the term dictionary
+ * and only the posting lists of terms that occur in the changed products, so a
+ * single product edit costs a dictionary copy plus a few small array copies.
+ */
+public final class ProductSearchIndex {
+
+    private static final float NAME_WEIGHT = 3f;
+    private static final float CATEGORY_WEIGHT = 2f;
+    private static final float BRAND_WEIGHT = 2f;
+    private static final float DESCRIPTION_WEIGHT = 1f;
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Prefix matches rank below an exact match of the same term
+    private static final double PREFIX_PENALTY = 0.5;
+    private static final int MAX_PREFIX_EXPANSIONS = 50;
+
+    private final NavigableMap<String, Postings> postings;
+    private final Map<Long, Float> docLengths;
+    private final double totalLength;
+
+    private ProductSearchIndex(NavigableMap<String, Postings> postings, Map<Long, Float> docLengths, double totalLength) {
+        this.postings = postings;
+        this.docLengths = docLengths;
+        this.totalLength = totalLength;
+    }
+
+    public static ProductSearchIndex build(Collection<ProductDto> products) {
+        Map<String, Map<Long, Float>> builder = new HashMap<>();
+        Map<Long, Float> docLengths = new HashMap<>();
+        double totalLength = 0;
+
+        for (ProductDto product : products) {
+            Map<String, Float> terms = termFrequencies(product);
+            float length = 0;
+            for (Map.Entry<String, Float> term : terms.entrySet()) {
+                builder.computeIfAbsent(term.getKey(), k -> new HashMap<>()).put(product.getId(), term.getValue());
+                length += term.getValue();
+            }
+            docLengths.put(product.getId(), length);
+            totalLength += length;
+        }
+
+        NavigableMap<String, Postings> postings = new TreeMap<>();
+        builder.forEach((term, docs) -> postings.put(term, Postings.of(docs)));
+        return new ProductSearchIndex(postings, docLengths, totalLength);
+    }
+
+    /**
+     * Returns a new index in which the {@code previous} versions of products are
+     * replaced by {@code current}. A product that was deleted is only in {@code previous}.
+     */
+    public ProductSearchIndex update(Collection<ProductDto> previous, Collection<ProductDto> current) {
+        NavigableMap<String, Postings> nextPostings = new TreeMap<>(postings);
+        Map<Long, Float> nextDocLengths = new HashMap<>(docLengths);
+        double nextTotalLength = totalLength;
+
+        // Collect the per-term edits first so every touched posting list is copied only once
+        Map<String, Map<Long, Float>> edits = new HashMap<>();
+        for (ProductDto product : previous) {
+            for (String term : termFrequencies(product).keySet()) {
+                edits.computeIfAbsent(term, k -> new HashMap<>()).put(product.getId(), null);
+            }
+            Float length = nextDocLengths.remove(product.getId());
+            if (length != null) {
+                nextTotalLength -= length;
+            }
+        }
+        for (ProductDto product : current) {
+            Map<String, Float> terms = termFrequencies(product);
+            float length = 0;
+            for (Map.Entry<String, Float> term : terms.entrySet()) {
+                edits.computeIfAbsent(term.getKey(), k -> new HashMap<>()).put(product.getId(), term.getValue());
+                length += term.getValue();
+            }
+            nextDocLengths.put(product.getId(), length);
+            nextTotalLength += length;
+        }
+
+        edits.forEach((term, docs) -> {
+            Postings existing = nextPostings.get(term);
+            Postings updated = existing == null ? Postings.of(docs) : existing.apply(docs);
+            if (updated.size() == 0) {
+                nextPostings.remove(term);
+            } else {
+                nextPostings.put(term, updated);
+            }
+        });
+
+        return new ProductSearchIndex(nextPostings, nextDocLengths, nextTotalLength);
+    }
+
+    /**
+     * Returns the ids of the best matching products, best first.
+     */
+    public List<Long> search(String query, int limit) {
+        List<String> queryTerms = tokenize(query);
+        if (queryTerms.isEmpty() || docLengths.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int documentCount = docLengths.size();
+        double averageLength = totalLength / documentCount;
+        Map<Long, Double> scores = null;
+
+        for (String queryTerm : queryTerms) {
+            Map<Long, Double> termScores = new HashMap<>();
+            int expansions = 0;
+            for (Map.Entry<String, Postings> entry : postings.tailMap(queryTerm, true).entrySet()) {
+                String term = entry.getKey();
+                if (!term.startsWith(queryTerm) || expansions++ >= MAX_PREFIX_EXPANSIONS) {
+                    break;
+                }
+                Postings list = entry.getValue();
+                double idf = Math.log(1 + (documentCount - list.size() + 0.5) / (list.size() + 0.5));
+                double boost = term.equals(queryTerm) ? 1.0 : PREFIX_PENALTY;
+                for (int i = 0; i < list.size(); i++) {
+                    long id = list.ids[i];
+                    double tf = list.weights[i];
+                    double norm = K1 * (1 - B + B * docLengths.get(id) / averageLength);
+                    double score = boost * idf * tf * (K1 + 1) / (tf + norm);
+                    // Take the best expansion per product so "so" does not reward socks + sole + soft
+                    termScores.merge(id, score, Math::max);
+                }
+            }
+
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                // Every query term has to match
+                Map<Long, Double> combined = new HashMap<>();
+                for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+                    Double termScore = termScores.get(entry.getKey());
+                    if (termScore != null) {
+                        combined.put(entry.getKey(), entry.getValue() + termScore);
+                    }
+                }
+                scores = combined;
+            }
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+
+        // Keep only the best `limit` hits in a min-heap instead of sorting every match
+        Comparator<Map.Entry<Long, Double>> ranking = Map.Entry.<Long, Double>comparingByValue()
+                .thenComparing(Map.Entry.<Long, Double>comparingByKey().reversed());
+        PriorityQueue<Map.Entry<Long, Double>> top = new PriorityQueue<>(ranking);
+        for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+            top.offer(entry);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+
+        List<Long> ids = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            ids.add(top.poll().getKey());
+        }
+        Collections.reverse(ids);
+        return ids;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static Map<String, Float> termFrequencies(ProductDto product) {
+        Map<String, Float> terms = new LinkedHashMap<>();
+        addField(terms, product.getName(), NAME_WEIGHT);
+        addField(terms, product.getCategoryName(), CATEGORY_WEIGHT);
+        addField(terms, product.getBrandName(), BRAND_WEIGHT);
+        addField(terms, product.getDescription(), DESCRIPTION_WEIGHT);
+        return terms;
+    }
+
+    private static void addField(Map<String, Float> terms, String text, float weight) {
+        for (String token : tokenize(text)) {
+            terms.merge(token, weight, Float::sum);
+        }
+    }
+
+    /**
+     * Posting list of one term: product ids in ascending order with their weighted term frequency.
+     */
+    private static final class Postings {
+
+        private final long[] ids;
+        private final float[] weights;
+
+        private Postings(long[] ids, float[] weights) {
+            this.ids = ids;
+            this.weights = weights;
+        }
+
+        static Postings of(Map<Long, Float> docs) {
+            return new Postings(new long[0], new float[0]).apply(docs);
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * Copy of this list with the given products replaced; a null weight removes the product.
+         */
+        Postings apply(Map<Long, Float> docs) {
+            TreeMap<Long, Float> merged = new TreeMap<>();
+            for (int i = 0; i < ids.length; i++) {
+                merged.put(ids[i], weights[i]);
+            }
+            docs.forEach((id, weight) -> {
+                if (weight == null) {
+                    merged.remove(id);
+                } else {
+                    merged.put(id, weight);
+                }
+            });
+
+            long[] nextIds = new long[merged.size()];
+            float[] nextWeights = new float[merged.size()];
+            int i = 0;
+            for (Map.Entry<Long, Float> entry : merged.entrySet()) {
+                nextIds[i] = entry.getKey();
+                nextWeights[i] = entry.getValue();
+                i++;
+            }
+            return new Postings(nextIds, nextWeights);
+        }
+    }
+}
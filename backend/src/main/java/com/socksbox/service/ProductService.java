@@ -1,85 +1,217 @@
 
 package com.socksbox.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.socksbox.dto.FacetedProductsDto;
 import com.socksbox.dto.ProductDto;
+import com.socksbox.dto.ProductPageDto;
+import com.socksbox.dto.SuggestionDto;
 import com.socksbox.entity.Brand;
 import com.socksbox.entity.Category;
 import com.socksbox.entity.Product;
+import com.socksbox.event.CatalogChangedEvent;
 import com.socksbox.exception.ResourceNotFoundException;
 import com.socksbox.repository.BrandRepository;
 import com.socksbox.repository.CategoryRepository;
+import com.socksbox.repository.ProductReadRepository;
 import com.socksbox.repository.ProductRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 @Service
 public class ProductService {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
+    private static final int DEFAULT_SUGGEST_LIMIT = 8;
+    private static final int MAX_SUGGEST_LIMIT = 20;
+
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ProductReadRepository productReadRepository;
+
     @Autowired
     private CategoryRepository categoryRepository;
 
     @Autowired
     private BrandRepository brandRepository;
 
+    @Autowired
+    private CatalogSnapshot catalogSnapshot;
+
+    @Autowired
+    private CatalogSuggester catalogSuggester;
+
+    @Autowired
+    private InventoryService inventoryService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     public List<ProductDto> getAllProducts() {
-        return productRepository.findAll().stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
+        return catalogSnapshot.current().getAll();
+    }
+
+    public ProductPageDto getProductPage(String sort, String cursor, Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        boolean byPrice = "price".equalsIgnoreCase(sort);
+        if (!byPrice && sort != null && !"id".equalsIgnoreCase(sort)) {
+            throw new RuntimeException("Unsupported sort " + sort + ", expected id or price");
+        }
+
+        // Ids and prices are always positive, so (0, 0) sorts before every row
+        long afterId = 0L;
+        BigDecimal afterPrice = BigDecimal.ZERO;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String[] parts = decodeCursor(cursor, byPrice);
+                afterId = Long.parseLong(parts[1]);
+                if (byPrice) {
+                    afterPrice = new BigDecimal(parts[2]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException("Invalid product cursor");
+            }
+        }
+
+        // Fetch one extra row to learn whether another page exists without a count query
+        List<ProductDto> items = byPrice
+                ? productReadRepository.findPricePageAfter(afterPrice, afterId, pageSize + 1)
+                : productReadRepository.findPageAfterId(afterId, pageSize + 1);
+
+        String next = null;
+        if (items.size() > pageSize) {
+            items = items.subList(0, pageSize);
+            next = encodeCursor(byPrice, items.get(pageSize - 1));
+        }
+
+        return new ProductPageDto(items, next);
+    }
+
+    @Transactional(readOnly = true)
+    public void streamAllProducts(OutputStream outputStream) throws IOException {
+        JsonGenerator generator = objectMapper.createGenerator(outputStream);
+        generator.writeStartArray();
+        try {
+            productReadRepository.streamAll(product -> {
+                try {
+                    generator.writeObject(product);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+        generator.flush();
     }
 
     public List<ProductDto> getFeaturedProducts() {
-        return productRepository.findByFeatured(true).stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
+        return catalogSnapshot.current().getFeatured();
     }
 
     public List<ProductDto> getProductsByCategory(Long categoryId) {
-        return productRepository.findByCategoryId(categoryId).stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
+        return catalogSnapshot.current().getByCategory(categoryId);
     }
 
     public List<ProductDto> getProductsByBrand(Long brandId) {
-        return productRepository.findByBrandId(brandId).stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
+        return catalogSnapshot.current().getByBrand(brandId);
+    }
+
+    public List<ProductDto> getProductsByFilters(Long categoryId, Long brandId, List<String> colors, List<String> sizes,
+                                                 Double minPrice, Double maxPrice) {
+        return getFacetedProducts(categoryId, brandId, colors, sizes, minPrice, maxPrice).getItems();
     }
 
-    public List<ProductDto> getProductsByFilters(Long categoryId, Long brandId, Double minPrice, Double maxPrice) {
+    public FacetedProductsDto getFacetedProducts(Long categoryId, Long brandId, List<String> colors, List<String> sizes,
+                                                 Double minPrice, Double maxPrice) {
         BigDecimal minPriceBD = minPrice != null ? BigDecimal.valueOf(minPrice) : null;
         BigDecimal maxPriceBD = maxPrice != null ? BigDecimal.valueOf(maxPrice) : null;
-        
-        return productRepository.findByFilters(categoryId, brandId, minPriceBD, maxPriceBD).stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
+
+        Map<String, List<String>> selections = new HashMap<>();
+        if (categoryId != null) {
+            selections.put(ProductFacetIndex.CATEGORY, List.of(categoryId.toString()));
+        }
+        if (brandId != null) {
+            selections.put(ProductFacetIndex.BRAND, List.of(brandId.toString()));
+        }
+        if (colors != null) {
+            selections.put(ProductFacetIndex.COLOR, colors);
+        }
+        if (sizes != null) {
+            selections.put(ProductFacetIndex.SIZE, sizes);
+        }
+
+        return catalogSnapshot.current().getFacets().filter(selections, minPriceBD, maxPriceBD);
+    }
+
+    public List<ProductDto> searchProducts(String query, Integer limit) {
+        int maxResults = limit == null ? DEFAULT_SEARCH_LIMIT : Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+        return catalogSnapshot.current().search(query, maxResults);
+    }
+
+    public List<SuggestionDto> suggest(String prefix, Integer limit) {
+        int maxResults = limit == null ? DEFAULT_SUGGEST_LIMIT : Math.max(1, Math.min(limit, MAX_SUGGEST_LIMIT));
+        return catalogSuggester.suggest(prefix, maxResults);
     }
 
     public ProductDto getProductById(Long id) {
-        Product product = productRepository.findById(id)
+        return catalogSnapshot.current().getById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Product not found with id " + id));
-        return convertToDto(product);
     }
 
+    @Transactional
     public ProductDto createProduct(ProductDto productDto) {
         Product product = new Product();
         updateProductFromDto(product, productDto);
         Product savedProduct = productRepository.save(product);
+        if (savedProduct.getInventory() != null) {
+            inventoryService.recordCreated(savedProduct.getId(), savedProduct.getInventory());
+        }
+        eventPublisher.publishEvent(CatalogChangedEvent.product(savedProduct.getId()));
         return convertToDto(savedProduct);
     }
 
+    @Transactional
     public ProductDto updateProduct(Long id, ProductDto productDto) {
         Product product = productRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Product not found with id " + id));
+        BigDecimal previousPrice = product.getPrice();
         updateProductFromDto(product, productDto);
+        if (productDto.getInventory() != null) {
+            // Stock goes through the ledger, and a sharded product's row keeps none of it
+            product.setInventory(inventoryService.setStock(id, productDto.getInventory()));
+        }
         Product updatedProduct = productRepository.save(product);
-        return convertToDto(updatedProduct);
+        ProductDto updated = convertToDto(updatedProduct);
+        if (productDto.getInventory() != null) {
+            updated.setInventory(productDto.getInventory());
+            updated.setInStock(productDto.getInventory() > 0);
+        }
+        boolean repriced = product.getPrice() != null && product.getPrice().compareTo(previousPrice) != 0;
+        eventPublisher.publishEvent(repriced ? CatalogChangedEvent.priceChanged(id) : CatalogChangedEvent.product(id));
+        return updated;
     }
 
     public void deleteProduct(Long id) {
@@ -87,6 +219,7 @@ public class ProductService {
             throw new ResourceNotFoundException("Product not found with id " + id);
         }
         productRepository.deleteById(id);
+        eventPublisher.publishEvent(CatalogChangedEvent.product(id));
     }
 
     private void updateProductFromDto(Product product, ProductDto productDto) {
@@ -114,6 +247,22 @@ public class ProductService {
         }
     }
 
+    private String encodeCursor(boolean byPrice, ProductDto last) {
+        String raw = byPrice
+                ? "price:" + last.getId() + ":" + last.getPrice().toPlainString()
+                : "id:" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String[] decodeCursor(String cursor, boolean byPrice) {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        String[] parts = raw.split(":");
+        if (parts.length != (byPrice ? 3 : 2) || !parts[0].equals(byPrice ? "price" : "id")) {
+            throw new IllegalArgumentException("Cursor does not match sort order");
+        }
+        return parts;
+    }
+
     private ProductDto convertToDto(Product product) {
         ProductDto productDto = new ProductDto();
         productDto.setId(product.getId());
@@ -0,0 +1,192 @@
+
+package com.socksbox.service;
+
+import com.socksbox.dto.SuggestionDto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable prefix trie for typeahead, flattened into parallel arrays so it costs a
+ * few bytes per node instead of an object with a child map. Children of a node are
+ * stored contiguously and sorted by label, and every node remembers the highest
+ * weight below it, so the top-k completions of a prefix are found best-first
+ * without visiting the rest of the subtree.
+ * <p>
+ * Every word start of a suggestion is indexed, so "crew" finds "Casual Cotton Crew Socks".
+ */
+public final class SuggestionTrie {
+
+    private final char[] labels;
+    private final int[] firstChild;
+    private final int[] childCount;
+    private final long[] maxWeight;
+    // Suggestions ending at a node live in terminals[terminalStart[n] .. terminalStart[n + 1])
+    private final int[] terminalStart;
+    private final int[] terminals;
+
+    private final SuggestionDto[] suggestions;
+    private final long[] weights;
+
+    private SuggestionTrie(char[] labels, int[] firstChild, int[] childCount, long[] maxWeight,
+                           int[] terminalStart, int[] terminals, SuggestionDto[] suggestions, long[] weights) {
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.childCount = childCount;
+        this.maxWeight = maxWeight;
+        this.terminalStart = terminalStart;
+        this.terminals = terminals;
+        this.suggestions = suggestions;
+        this.weights = weights;
+    }
+
+    public List<SuggestionDto> suggest(String prefix, int limit) {
+        List<SuggestionDto> results = new ArrayList<>();
+        String key = normalize(prefix);
+        if (key.isEmpty() || labels.length == 0) {
+            return results;
+        }
+
+        int node = 0;
+        for (int i = 0; i < key.length() && node >= 0; i++) {
+            node = child(node, key.charAt(i));
+        }
+        if (node < 0) {
+            return results;
+        }
+
+        // Best-first walk: entries are either trie nodes (ranked by subtree max) or suggestions
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        queue.offer(new long[]{maxWeight[node], node, 0});
+        Set<Integer> seen = new HashSet<>();
+        while (!queue.isEmpty() && results.size() < limit) {
+            long[] entry = queue.poll();
+            int index = (int) entry[1];
+            if (entry[2] == 1) {
+                if (seen.add(index)) {
+                    results.add(suggestions[index]);
+                }
+                continue;
+            }
+            for (int t = terminalStart[index]; t < terminalStart[index + 1]; t++) {
+                queue.offer(new long[]{weights[terminals[t]], terminals[t], 1});
+            }
+            for (int c = firstChild[index]; c < firstChild[index] + childCount[index]; c++) {
+                queue.offer(new long[]{maxWeight[c], c, 0});
+            }
+        }
+        return results;
+    }
+
+    private int child(int node, char label) {
+        int low = firstChild[node];
+        int high = low + childCount[node] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (labels[mid] < label) {
+                low = mid + 1;
+            } else if (labels[mid] > label) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private final List<SuggestionDto> suggestions = new ArrayList<>();
+        private final List<Long> weights = new ArrayList<>();
+        private final Node root = new Node();
+
+        public Builder add(SuggestionDto suggestion, long weight) {
+            String text = normalize(suggestion.getText());
+            if (text.isEmpty()) {
+                return this;
+            }
+            int index = suggestions.size();
+            suggestions.add(suggestion);
+            weights.add(weight);
+
+            for (int start = 0; start < text.length(); start++) {
+                if (start == 0 || (text.charAt(start - 1) == ' ' && text.charAt(start) != ' ')) {
+                    insert(text.substring(start), index, weight);
+                }
+            }
+            return this;
+        }
+
+        private void insert(String key, int index, long weight) {
+            Node node = root;
+            node.maxWeight = Math.max(node.maxWeight, weight);
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+                node.maxWeight = Math.max(node.maxWeight, weight);
+            }
+            node.terminals.add(index);
+        }
+
+        public SuggestionTrie build() {
+            // Breadth-first numbering keeps every node's children next to each other
+            List<Node> order = new ArrayList<>();
+            List<Character> nodeLabels = new ArrayList<>();
+            order.add(root);
+            nodeLabels.add('\0');
+            int[] first = new int[16];
+            for (int i = 0; i < order.size(); i++) {
+                if (i >= first.length) {
+                    first = Arrays.copyOf(first, first.length * 2);
+                }
+                first[i] = order.size();
+                for (Map.Entry<Character, Node> child : order.get(i).children.entrySet()) {
+                    order.add(child.getValue());
+                    nodeLabels.add(child.getKey());
+                }
+            }
+
+            int size = order.size();
+            char[] labels = new char[size];
+            int[] firstChild = Arrays.copyOf(first, size);
+            int[] childCount = new int[size];
+            long[] maxWeight = new long[size];
+            int[] terminalStart = new int[size + 1];
+            List<Integer> terminalList = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                Node node = order.get(i);
+                labels[i] = nodeLabels.get(i);
+                childCount[i] = node.children.size();
+                maxWeight[i] = node.maxWeight;
+                terminalStart[i] = terminalList.size();
+                terminalList.addAll(node.terminals);
+            }
+            terminalStart[size] = terminalList.size();
+
+            return new SuggestionTrie(labels, firstChild, childCount, maxWeight, terminalStart,
+                    terminalList.stream().mapToInt(Integer::intValue).toArray(),
+                    suggestions.toArray(new SuggestionDto[0]),
+                    weights.stream().mapToLong(Long::longValue).toArray());
+        }
+
+        private static final class Node {
+            private final TreeMap<Character, Node> children = new TreeMap<>();
+            private final List<Integer> terminals = new ArrayList<>(1);
+            private long maxWeight;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+-- Runs after Hibernate has created or updated the tables (spring.jpa.defer-datasource-initialization).
+-- Statements here have to be idempotent, they run on every start.
+
+-- A cart holds at most one line per product, color and size. NULL color or size counts as a value,
+-- so the index is built over COALESCE and upserts name the same expressions as their conflict target.
+-- Lines duplicated before the index existed are merged into the oldest one first.
+UPDATE cart_items keep SET quantity = dup.total
+FROM (SELECT MIN(id) AS id, SUM(quantity) AS total FROM cart_items
+      GROUP BY cart_id, product_id, COALESCE(color, ''), COALESCE(size, '') HAVING COUNT(*) > 1) dup
+WHERE keep.id = dup.id;
+
+DELETE FROM cart_items extra USING cart_items keep
+WHERE extra.cart_id = keep.cart_id AND extra.product_id = keep.product_id
+  AND COALESCE(extra.color, '') = COALESCE(keep.color, '') AND COALESCE(extra.size, '') = COALESCE(keep.size, '')
+  AND extra.id > keep.id;
+
+CREATE UNIQUE INDEX IF NOT EXISTS uk_cart_items_line
+    ON cart_items (cart_id, product_id, COALESCE(color, ''), COALESCE(size, ''));
+
+-- Product images, colors and sizes keep their list order in sort_order. Rows written before the
+-- column existed are numbered in the order they were stored.
+ALTER TABLE product_images ADD COLUMN IF NOT EXISTS sort_order INTEGER;
+UPDATE product_images stored SET sort_order = numbered.sort_order
+FROM (SELECT ctid, ROW_NUMBER() OVER (PARTITION BY product_id ORDER BY ctid) - 1 AS sort_order
+      FROM product_images WHERE sort_order IS NULL) numbered
+WHERE stored.ctid = numbered.ctid;
+ALTER TABLE product_images ALTER COLUMN sort_order SET NOT NULL;
+
+ALTER TABLE product_colors ADD COLUMN IF NOT EXISTS sort_order INTEGER;
+UPDATE product_colors stored SET sort_order = numbered.sort_order
+FROM (SELECT ctid, ROW_NUMBER() OVER (PARTITION BY product_id ORDER BY ctid) - 1 AS sort_order
+      FROM product_colors WHERE sort_order IS NULL) numbered
+WHERE stored.ctid = numbered.ctid;
+ALTER TABLE product_colors ALTER COLUMN sort_order SET NOT NULL;
+
+ALTER TABLE product_sizes ADD COLUMN IF NOT EXISTS sort_order INTEGER;
+UPDATE product_sizes stored SET sort_order = numbered.sort_order
+FROM (SELECT ctid, ROW_NUMBER() OVER (PARTITION BY product_id ORDER BY ctid) - 1 AS sort_order
+      FROM product_sizes WHERE sort_order IS NULL) numbered
+WHERE stored.ctid = numbered.ctid;
+ALTER TABLE product_sizes ALTER COLUMN sort_order SET NOT NULL;
+
+-- The idle cart sweeper walks carts oldest first.
+CREATE INDEX IF NOT EXISTS idx_carts_updated_at ON carts (updated_at);
+
+-- Where the sweeper moves abandoned carts when cart.sweep.archive is on.
+CREATE TABLE IF NOT EXISTS carts_archive (
+    id          BIGINT PRIMARY KEY,
+    user_id     BIGINT NOT NULL,
+    created_at  TIMESTAMP,
+    updated_at  TIMESTAMP,
+    archived_at TIMESTAMP NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS cart_items_archive (
+    id         BIGINT PRIMARY KEY,
+    cart_id    BIGINT NOT NULL,
+    product_id BIGINT NOT NULL,
+    quantity   INTEGER NOT NULL,
+    price      NUMERIC(10, 2) NOT NULL,
+    color      VARCHAR(255),
+    size       VARCHAR(255)
+);
+
+-- Cart repricing looks up the lines of the products whose price changed.
+CREATE INDEX IF NOT EXISTS idx_cart_items_product ON cart_items (product_id);
+
+-- Running cart totals, filled in once for carts that existed before the columns did.
+UPDATE carts c SET subtotal_minor = COALESCE(t.subtotal, 0), item_count = COALESCE(t.units, 0)
+FROM carts c2 LEFT JOIN (SELECT cart_id, SUM(ROUND(price * 100) * quantity) AS subtotal, SUM(quantity) AS units
+                         FROM cart_items GROUP BY cart_id) t ON t.cart_id = c2.id
+WHERE c.id = c2.id AND c.subtotal_minor IS NULL;
+
+-- Stock of hot products split into shards, checkouts take from one shard row each.
+-- products.inventory of a sharded product stays at 0.
+CREATE TABLE IF NOT EXISTS inventory_shards (
+    product_id BIGINT  NOT NULL REFERENCES products (id) ON DELETE CASCADE,
+    shard      INTEGER NOT NULL,
+    quantity   INTEGER NOT NULL CHECK (quantity >= 0),
+    PRIMARY KEY (product_id, shard)
+);
+
+-- Append-only ledger of stock changes. quantity is the signed change, a product's stock is its
+-- snapshot plus the movements after the snapshot's movement_id.
+CREATE TABLE IF NOT EXISTS inventory_movements (
+    id         BIGSERIAL PRIMARY KEY,
+    product_id BIGINT      NOT NULL,
+    type       VARCHAR(16) NOT NULL,
+    quantity   INTEGER     NOT NULL,
+    order_id   BIGINT,
+    created_at TIMESTAMP   NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_inventory_movements_product ON inventory_movements (product_id, id);
+CREATE INDEX IF NOT EXISTS idx_inventory_movements_created ON inventory_movements (created_at);
+
+CREATE TABLE IF NOT EXISTS inventory_snapshots (
+    product_id  BIGINT    PRIMARY KEY,
+    movement_id BIGINT    NOT NULL,
+    quantity    INTEGER   NOT NULL,
+    taken_at    TIMESTAMP NOT NULL
+);
+
+-- Idempotency-Key of order and payment requests, status and response_body stay NULL while the
+-- request runs.
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    scope         VARCHAR(64)  NOT NULL,
+    idem_key      VARCHAR(255) NOT NULL,
+    request_hash  VARCHAR(64)  NOT NULL,
+    status        INTEGER,
+    response_body TEXT,
+    created_at    TIMESTAMP    NOT NULL,
+    PRIMARY KEY (scope, idem_key)
+);
+
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_created_at ON idempotency_keys (created_at);
+
+-- Transactional outbox of the order pipeline, written with the order and consumed in batches by
+-- OrderOutboxService. processed_at stays NULL until every downstream step ran.
+CREATE TABLE IF NOT EXISTS order_outbox (
+    id           BIGSERIAL PRIMARY KEY,
+    type         VARCHAR(32) NOT NULL,
+    order_id     BIGINT      NOT NULL,
+    user_id      BIGINT      NOT NULL,
+    payload      TEXT        NOT NULL,
+    attempts     INTEGER     NOT NULL DEFAULT 0,
+    available_at TIMESTAMP   NOT NULL,
+    processed_at TIMESTAMP,
+    last_error   TEXT,
+    created_at   TIMESTAMP   NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_order_outbox_pending ON order_outbox (available_at, id) WHERE processed_at IS NULL;
+-- Checkout reads the pending order of the user, it no longer has to be the only one
+DROP INDEX IF EXISTS idx_order_outbox_pending_order_user;
+CREATE INDEX IF NOT EXISTS idx_order_outbox_pending_user ON order_outbox (user_id) WHERE processed_at IS NULL;
+CREATE INDEX IF NOT EXISTS idx_order_outbox_processed_at ON order_outbox (processed_at) WHERE processed_at IS NOT NULL;
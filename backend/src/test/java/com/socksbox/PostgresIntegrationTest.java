@@ -0,0 +1,128 @@
+
+package com.socksbox;
+
+import com.socksbox.dto.ProductDto;
+import com.socksbox.entity.Brand;
+import com.socksbox.entity.Category;
+import com.socksbox.entity.User;
+import com.socksbox.repository.BrandRepository;
+import com.socksbox.repository.CategoryRepository;
+import com.socksbox.repository.UserRepository;
+import com.socksbox.service.ProductService;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Base of tests that need the whole application on a real PostgreSQL. The repositories
+ * rely on PostgreSQL features (ON CONFLICT, RETURNING, SKIP LOCKED, arrays), so an
+ * embedded server is started once per test run and shared by every test class, which
+ * also share one application context.
+ */
+@SpringBootTest(properties = {
+        "logging.level.org.springframework.security=INFO",
+        "logging.level.com.socksbox=INFO",
+        "logging.level.org.hibernate.SQL=INFO",
+        "logging.level.org.hibernate.type.descriptor.sql.BasicBinder=INFO",
+        // Carts reach the database only when a test or checkout flushes them
+        "cart.flush-interval-ms=600000",
+        // Placed orders leave the outbox only when a test dispatches them
+        "order.outbox.poll-ms=600000"
+})
+@Import(StatementCounter.class)
+public abstract class PostgresIntegrationTest {
+
+    private static final EmbeddedPostgres POSTGRES = start();
+
+    @Autowired
+    protected ProductService productService;
+
+    @Autowired
+    protected CategoryRepository categoryRepository;
+
+    @Autowired
+    protected BrandRepository brandRepository;
+
+    @Autowired
+    protected UserRepository userRepository;
+
+    @DynamicPropertySource
+    static void postgresProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url",
+                () -> POSTGRES.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true");
+        registry.add("cart.journal.dir", () -> tempDir("cart-journal"));
+    }
+
+    protected Category createCategory() {
+        Category category = new Category();
+        category.setName("Category " + UUID.randomUUID());
+        return categoryRepository.save(category);
+    }
+
+    protected Brand createBrand() {
+        Brand brand = new Brand();
+        brand.setName("Brand " + UUID.randomUUID());
+        return brandRepository.save(brand);
+    }
+
+    /**
+     * Creates a product through the service, so it is in the catalog snapshot and the
+     * inventory ledger like any product an admin creates.
+     */
+    protected ProductDto createProduct(Category category, Brand brand, String price, int inventory) {
+        ProductDto product = new ProductDto();
+        product.setName("Product " + UUID.randomUUID());
+        product.setPrice(new BigDecimal(price));
+        product.setInventory(inventory);
+        product.setCategoryId(category.getId());
+        product.setBrandId(brand.getId());
+        product.setImages(new ArrayList<>(List.of("https://example.com/1.jpg", "https://example.com/2.jpg")));
+        product.setColors(new ArrayList<>(List.of("Black", "White")));
+        product.setSizes(new ArrayList<>(List.of("M", "L")));
+        return productService.createProduct(product);
+    }
+
+    protected User createCustomer() {
+        User user = new User();
+        user.setName("Customer");
+        user.setEmail(UUID.randomUUID() + "@example.com");
+        user.setPassword("not-a-real-hash");
+        user.setRole(User.Role.CUSTOMER);
+        return userRepository.save(user);
+    }
+
+    private static EmbeddedPostgres start() {
+        try {
+            EmbeddedPostgres postgres = EmbeddedPostgres.builder().setServerConfig("max_connections", "200").start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    postgres.close();
+                } catch (IOException ignored) {
+                    // The JVM is going away either way
+                }
+            }));
+            return postgres;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start embedded PostgreSQL", e);
+        }
+    }
+
+    private static String tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+
+package com.socksbox.repository;
+
+import com.socksbox.PostgresIntegrationTest;
+import com.socksbox.dto.InventoryMovementDto;
+import com.socksbox.dto.ProductDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InventoryLedgerRepositoryTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private InventoryLedgerRepository inventoryLedgerRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void snapshotsNeverSkipAMovementThatBecameVisibleLate() {
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", 7);
+        LocalDateTime now = LocalDateTime.now();
+        // The lower id was recorded inside the lag, the higher one long before it
+        long late = insertMovement(product.getId(), -1, now);
+        long early = insertMovement(product.getId(), -2, now.minusHours(1));
+        assertThat(late).isLessThan(early);
+
+        inventoryLedgerRepository.takeSnapshots(now.minusMinutes(1));
+        assertThat(inventoryLedgerRepository.findStock(product.getId()).getLedgerStock()).isEqualTo(4);
+
+        // The cutoff is shared by all products, so every movement up to these leaves the lag
+        jdbcTemplate.update("UPDATE inventory_movements SET created_at = ? WHERE id <= ?",
+                Timestamp.valueOf(now.minusHours(1)), early);
+        inventoryLedgerRepository.takeSnapshots(now.minusMinutes(1));
+        assertThat(jdbcTemplate.queryForObject("SELECT movement_id FROM inventory_snapshots WHERE product_id = ?",
+                Long.class, product.getId())).isGreaterThanOrEqualTo(early);
+        assertThat(inventoryLedgerRepository.findStock(product.getId()).getLedgerStock()).isEqualTo(4);
+    }
+
+    private long insertMovement(Long productId, int quantity, LocalDateTime createdAt) {
+        return jdbcTemplate.queryForObject(
+                "INSERT INTO inventory_movements (product_id, type, quantity, created_at) VALUES (?, ?, ?, ?) RETURNING id",
+                Long.class, productId, InventoryMovementDto.Type.ADJUSTMENT.name(), quantity, Timestamp.valueOf(createdAt));
+    }
+}
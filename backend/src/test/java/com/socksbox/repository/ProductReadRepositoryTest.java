@@ -0,0 +1,77 @@
+
+package com.socksbox.repository;
+
+import com.socksbox.PostgresIntegrationTest;
+import com.socksbox.StatementCounter;
+import com.socksbox.dto.ProductDto;
+import com.socksbox.entity.Brand;
+import com.socksbox.entity.Category;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductReadRepositoryTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private ProductReadRepository productReadRepository;
+
+    @Test
+    void listingCostsOneQueryHoweverManyProducts() {
+        for (int size : new int[]{1, 5, 40}) {
+            Category category = createCategory();
+            Brand brand = createBrand();
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                ids.add(createProduct(category, brand, "9.99", 10).getId());
+            }
+
+            AtomicReference<List<ProductDto>> byCategory = new AtomicReference<>();
+            assertThat(StatementCounter.count(() -> byCategory.set(productReadRepository.findByCategoryId(category.getId()))))
+                    .isEqualTo(1);
+            assertThat(byCategory.get()).hasSize(size);
+
+            AtomicReference<List<ProductDto>> byIds = new AtomicReference<>();
+            assertThat(StatementCounter.count(() -> byIds.set(productReadRepository.findByIds(ids)))).isEqualTo(1);
+            assertThat(byIds.get()).hasSize(size);
+
+            assertThat(StatementCounter.count(() -> productReadRepository.findAll())).isEqualTo(1);
+            assertThat(StatementCounter.count(() -> productReadRepository.findByBrandId(brand.getId()))).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void projectionCarriesCollectionsAndAssociations() {
+        Category category = createCategory();
+        Brand brand = createBrand();
+        Long id = createProduct(category, brand, "12.50", 7).getId();
+
+        ProductDto product = productReadRepository.findById(id).orElseThrow();
+
+        assertThat(product.getCategoryName()).isEqualTo(category.getName());
+        assertThat(product.getBrandName()).isEqualTo(brand.getName());
+        assertThat(product.getImages()).containsExactly("https://example.com/1.jpg", "https://example.com/2.jpg");
+        assertThat(product.getImageUrl()).isEqualTo("https://example.com/1.jpg");
+        assertThat(product.getColors()).containsExactly("Black", "White");
+        assertThat(product.getSizes()).containsExactly("M", "L");
+        assertThat(product.getInventory()).isEqualTo(7);
+    }
+
+    @Test
+    void collectionsKeepTheirOrderWhenRewritten() {
+        ProductDto product = createProduct(createCategory(), createBrand(), "12.50", 7);
+        product.setImages(new ArrayList<>(List.of("https://example.com/2.jpg", "https://example.com/1.jpg")));
+        product.setSizes(new ArrayList<>(List.of("L", "S", "M")));
+        productService.updateProduct(product.getId(), product);
+
+        ProductDto updated = productReadRepository.findById(product.getId()).orElseThrow();
+
+        assertThat(updated.getImages()).containsExactly("https://example.com/2.jpg", "https://example.com/1.jpg");
+        assertThat(updated.getImageUrl()).isEqualTo("https://example.com/2.jpg");
+        assertThat(updated.getSizes()).containsExactly("L", "S", "M");
+    }
+}
@@ -0,0 +1,210 @@
+
+package com.socksbox.service;
+
+import com.socksbox.PostgresIntegrationTest;
+import com.socksbox.StatementCounter;
+import com.socksbox.dto.CartDto;
+import com.socksbox.dto.CartItemDto;
+import com.socksbox.dto.CartOperationDto;
+import com.socksbox.dto.ProductDto;
+import com.socksbox.entity.Brand;
+import com.socksbox.entity.Category;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CartServiceTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private CartLocks cartLocks;
+
+    @Autowired
+    private GuestCartTokens guestCartTokens;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void concurrentChangesToOneCartAreNeverLost() throws Exception {
+        Category category = createCategory();
+        Brand brand = createBrand();
+        ProductDto single = createProduct(category, brand, "1.25", 100);
+        ProductDto batched = createProduct(category, brand, "2.50", 100);
+        ProductDto pairs = createProduct(category, brand, "0.10", 100);
+        Long userId = createCustomer().getId();
+
+        int threads = 16;
+        int perThread = 300;
+        long acquisitionsBefore = cartLocks.getStats().getAcquisitions();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    switch (i % 4) {
+                        case 0 -> cartService.addItemToCart(userId, item(single, 1, null));
+                        case 1 -> cartService.applyOperations(userId, List.of(new CartOperationDto(
+                                CartOperationDto.Type.ADD, null, batched.getId(), null, null, 1)));
+                        case 2 -> cartService.addItemToCart(userId, item(pairs, 2, "Red"));
+                        default -> cartService.getCartByUserId(userId);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        int rounds = threads * perThread / 4;
+        CartDto cart = cartService.getCartByUserId(userId);
+        assertThat(quantities(cart.getItems())).containsExactlyInAnyOrderEntriesOf(Map.of(
+                single.getId(), rounds, batched.getId(), rounds, pairs.getId(), 2 * rounds));
+        assertThat(cart.getItemCount()).isEqualTo(4 * rounds);
+        assertThat(cart.getTotalAmount()).isEqualByComparingTo(new BigDecimal("1.25").multiply(BigDecimal.valueOf(rounds))
+                .add(new BigDecimal("2.50").multiply(BigDecimal.valueOf(rounds)))
+                .add(new BigDecimal("0.20").multiply(BigDecimal.valueOf(rounds))));
+        // Every change took the user's lock, reads are served from the cart cache
+        assertThat(cartLocks.getStats().getAcquisitions() - acquisitionsBefore).isGreaterThanOrEqualTo(3 * rounds);
+
+        cartService.flushCart(userId);
+        assertThat(storedQuantities(userId)).isEqualTo(quantities(cart.getItems()));
+    }
+
+    @Test
+    void pollsGetOnlyWhatChangedSinceTheirVersion() {
+        Category category = createCategory();
+        Brand brand = createBrand();
+        ProductDto kept = createProduct(category, brand, "3.00", 100);
+        ProductDto removed = createProduct(category, brand, "4.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, item(kept, 1, null));
+        CartDto first = cartService.addItemToCart(userId, item(removed, 1, null));
+        Long keptItemId = itemId(first, kept);
+        Long removedItemId = itemId(first, removed);
+
+        assertThat(cartService.getCartChanges(userId, first.getVersion())).isNull();
+        assertThat(StatementCounter.count(() -> cartService.getCartChanges(userId, first.getVersion()))).isZero();
+
+        CartDto second = cartService.updateCartItemQuantity(userId, keptItemId, 5);
+        assertThat(second.getVersion()).isGreaterThan(first.getVersion());
+        CartDto changed = cartService.getCartChanges(userId, first.getVersion());
+        assertThat(changed.isDelta()).isTrue();
+        assertThat(changed.getItems()).extracting(CartItemDto::getId).containsExactly(keptItemId);
+        assertThat(changed.getRemovedItemIds()).isEmpty();
+        assertThat(changed.getItemCount()).isEqualTo(6);
+
+        cartService.removeItemFromCart(userId, removedItemId);
+        CartDto afterRemoval = cartService.getCartChanges(userId, second.getVersion());
+        assertThat(afterRemoval.isDelta()).isTrue();
+        assertThat(afterRemoval.getItems()).isEmpty();
+        assertThat(afterRemoval.getRemovedItemIds()).containsExactly(removedItemId);
+        assertThat(afterRemoval.getTotalAmount()).isEqualByComparingTo("15.00");
+
+        // A version this cache never handed out gets the whole cart
+        CartDto whole = cartService.getCartChanges(userId, 1L);
+        assertThat(whole.isDelta()).isFalse();
+        assertThat(whole.getItems()).extracting(CartItemDto::getId).containsExactly(keptItemId);
+    }
+
+    @Test
+    void priceChangesReachCartsInMemoryAndStored() {
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, item(product, 3, null));
+        cartService.flushCart(userId);
+
+        product.setPrice(new BigDecimal("6.50"));
+        productService.updateProduct(product.getId(), product);
+
+        CartDto cart = cartService.getCartByUserId(userId);
+        assertThat(cart.getItems()).extracting(CartItemDto::getPrice).containsExactly(new BigDecimal("6.50"));
+        assertThat(cart.getTotalAmount()).isEqualByComparingTo("19.50");
+        cartService.flushCart(userId);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT ci.price FROM cart_items ci JOIN carts c ON c.id = ci.cart_id WHERE c.user_id = ?",
+                BigDecimal.class, userId)).isEqualByComparingTo("6.50");
+    }
+
+    @Test
+    void mergingAGuestCartAgainChangesNothing() {
+        Category category = createCategory();
+        Brand brand = createBrand();
+        ProductDto kept = createProduct(category, brand, "5.00", 100);
+        ProductDto raised = createProduct(category, brand, "5.00", 100);
+        ProductDto added = createProduct(category, brand, "5.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, item(kept, 4, null));
+        cartService.addItemToCart(userId, item(raised, 1, null));
+
+        String token = guestCartTokens.encode(List.of(item(kept, 2, null), item(raised, 3, null), item(added, 2, null)));
+        CartDto merged = cartService.mergeGuestCart(userId, token);
+        assertThat(quantities(merged.getItems())).isEqualTo(Map.of(kept.getId(), 4, raised.getId(), 3, added.getId(), 2));
+
+        // A retried login merges the same token again
+        CartDto mergedAgain = cartService.mergeGuestCart(userId, token);
+        assertThat(quantities(mergedAgain.getItems())).isEqualTo(quantities(merged.getItems()));
+        cartService.flushCart(userId);
+        assertThat(storedQuantities(userId)).isEqualTo(quantities(merged.getItems()));
+    }
+
+    @Test
+    void deletedProductsLeaveTheCartsHeldInMemory() {
+        Category category = createCategory();
+        Brand brand = createBrand();
+        ProductDto deleted = createProduct(category, brand, "5.00", 100);
+        ProductDto kept = createProduct(category, brand, "5.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, item(deleted, 1, null));
+        cartService.addItemToCart(userId, item(kept, 2, null));
+
+        productService.deleteProduct(deleted.getId());
+
+        assertThat(quantities(cartService.getCartByUserId(userId).getItems())).isEqualTo(Map.of(kept.getId(), 2));
+        cartService.flushCart(userId);
+        assertThat(storedQuantities(userId)).isEqualTo(Map.of(kept.getId(), 2));
+    }
+
+    private static Long itemId(CartDto cart, ProductDto product) {
+        return cart.getItems().stream()
+                .filter(item -> item.getProductId().equals(product.getId()))
+                .findFirst()
+                .orElseThrow()
+                .getId();
+    }
+
+    private static CartItemDto item(ProductDto product, int quantity, String color) {
+        return new CartItemDto(null, product.getId(), null, quantity, null, color, null, null);
+    }
+
+    private static Map<Long, Integer> quantities(List<CartItemDto> items) {
+        return items.stream().collect(Collectors.toMap(CartItemDto::getProductId, CartItemDto::getQuantity));
+    }
+
+    private Map<Long, Integer> storedQuantities(Long userId) {
+        return jdbcTemplate.query(
+                        "SELECT ci.product_id, ci.quantity FROM cart_items ci JOIN carts c ON c.id = ci.cart_id WHERE c.user_id = ?",
+                        (rs, rowNum) -> Map.entry(rs.getLong("product_id"), rs.getInt("quantity")), userId)
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+}
@@ -0,0 +1,105 @@
+
+package com.socksbox.service;
+
+import com.socksbox.PostgresIntegrationTest;
+import com.socksbox.dto.CartItemDto;
+import com.socksbox.dto.ProductDto;
+import com.socksbox.entity.Brand;
+import com.socksbox.entity.Category;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CartStoreTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void aCartTheDatabaseRejectsIsQuarantinedInsteadOfBlockingTheOthers() throws IOException {
+        Category category = createCategory();
+        Brand brand = createBrand();
+        ProductDto vanished = createProduct(category, brand, "5.00", 100);
+        ProductDto kept = createProduct(category, brand, "5.00", 100);
+        Long badUserId = createCustomer().getId();
+        Long goodUserId = createCustomer().getId();
+        cartService.addItemToCart(badUserId, item(vanished));
+        cartService.addItemToCart(goodUserId, item(kept));
+        // Gone from the database without any catalog event, the line can never be stored
+        for (String table : List.of("product_images", "product_colors", "product_sizes", "products")) {
+            jdbcTemplate.update("DELETE FROM " + table + " WHERE " + (table.equals("products") ? "id" : "product_id")
+                    + " = ?", vanished.getId());
+        }
+
+        cartStore.flushAll();
+
+        assertThat(storedProducts(goodUserId)).containsExactly(kept.getId());
+        assertThat(storedProducts(badUserId)).isEmpty();
+        // Only the segment the rejected cart was journaled into again is left
+        assertThat(journalSegments()).hasSize(1);
+
+        // A restart replays the rejected cart without failing and keeps it
+        ReflectionTestUtils.invokeMethod(cartStore, "recover");
+        assertThat(cartService.getCartByUserId(badUserId).getItems()).extracting(CartItemDto::getProductId)
+                .containsExactly(vanished.getId());
+
+        Long itemId = cartService.getCartByUserId(badUserId).getItems().get(0).getId();
+        cartService.removeItemFromCart(badUserId, itemId);
+        cartService.addItemToCart(badUserId, item(kept));
+        cartStore.flushAll();
+        assertThat(storedProducts(badUserId)).containsExactly(kept.getId());
+        assertThat(journalSegments()).isEmpty();
+    }
+
+    @Test
+    void aFlushRolledBackWithItsTransactionIsWrittenAgain() {
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, item(product));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            cartStore.flush(userId);
+            status.setRollbackOnly();
+        });
+        assertThat(storedProducts(userId)).isEmpty();
+
+        cartStore.flush(userId);
+        assertThat(storedProducts(userId)).containsExactly(product.getId());
+    }
+
+    private static CartItemDto item(ProductDto product) {
+        return new CartItemDto(null, product.getId(), null, 1, null, null, null, null);
+    }
+
+    private List<Long> storedProducts(Long userId) {
+        return jdbcTemplate.queryForList(
+                "SELECT ci.product_id FROM cart_items ci JOIN carts c ON c.id = ci.cart_id WHERE c.user_id = ?",
+                Long.class, userId);
+    }
+
+    private List<Path> journalSegments() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get((String) ReflectionTestUtils.getField(cartStore, "journalDirectory")))) {
+            return files.toList();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+
+package com.socksbox.service;
+
+import com.socksbox.event.CatalogChangedEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CatalogVersionTest {
+
+    private final CatalogVersion catalogVersion = new CatalogVersion();
+
+    @Test
+    void stockChangesLeaveBrandAndCategoryETagsAlone() {
+        String productsETag = productsETag();
+        String brandsETag = brandsAndCategoriesETag();
+
+        catalogVersion.onCatalogChanged(CatalogChangedEvent.stock(List.of(1L)));
+        catalogVersion.onCatalogChanged(CatalogChangedEvent.product(1L));
+
+        assertThat(productsETag()).isNotEqualTo(productsETag);
+        assertThat(brandsAndCategoriesETag()).isEqualTo(brandsETag);
+        assertThat(brandsNotModified(brandsETag)).isTrue();
+    }
+
+    @Test
+    void brandAndCategoryChangesMoveBothETags() {
+        String productsETag = productsETag();
+        String brandsETag = brandsAndCategoriesETag();
+
+        catalogVersion.onCatalogChanged(CatalogChangedEvent.all());
+
+        assertThat(productsETag()).isNotEqualTo(productsETag);
+        assertThat(brandsAndCategoriesETag()).isNotEqualTo(brandsETag);
+        assertThat(brandsNotModified(brandsETag)).isFalse();
+    }
+
+    private String productsETag() {
+        ServletWebRequest request = request(null);
+        catalogVersion.checkNotModified(request);
+        return request.getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    private String brandsAndCategoriesETag() {
+        ServletWebRequest request = request(null);
+        catalogVersion.checkBrandsAndCategoriesNotModified(request, null);
+        return request.getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    private boolean brandsNotModified(String etag) {
+        return catalogVersion.checkBrandsAndCategoriesNotModified(request(etag), null);
+    }
+
+    private static ServletWebRequest request(String ifNoneMatch) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/brands");
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return new ServletWebRequest(request, new MockHttpServletResponse());
+    }
+}
@@ -0,0 +1,119 @@
+
+package com.socksbox.service;
+
+import com.socksbox.PostgresIntegrationTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyStoreTest extends PostgresIntegrationTest {
+
+    private static final String SCOPE = "orders:test";
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Test
+    void concurrentRepeatsRunTheRequestOnce() throws Exception {
+        String key = UUID.randomUUID().toString();
+        AtomicInteger runs = new AtomicInteger();
+        int requests = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<ResponseEntity<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                responses.add(executor.submit(() -> {
+                    start.await();
+                    return idempotencyStore.execute(SCOPE, key, Map.of("quantity", 1), String.class, () -> {
+                        sleep(100);
+                        return ResponseEntity.status(HttpStatus.CREATED).body("order-" + runs.incrementAndGet());
+                    });
+                }));
+            }
+            start.countDown();
+
+            int replayed = 0;
+            for (Future<ResponseEntity<String>> response : responses) {
+                ResponseEntity<String> result = response.get();
+                assertThat(result.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+                assertThat(result.getBody()).isEqualTo("order-1");
+                if (result.getHeaders().containsKey(IdempotencyStore.REPLAYED_HEADER)) {
+                    replayed++;
+                }
+            }
+            assertThat(runs).hasValue(1);
+            assertThat(replayed).isEqualTo(requests - 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void repeatsAreAnsweredFromTheDatabaseOnceForgottenInMemory() {
+        String key = UUID.randomUUID().toString();
+        AtomicInteger runs = new AtomicInteger();
+        idempotencyStore.execute(SCOPE, key, Map.of("quantity", 1), String.class,
+                () -> ResponseEntity.status(HttpStatus.CREATED).body("order-" + runs.incrementAndGet()));
+
+        // As after a restart or on another instance
+        ((Map<?, ?>) ReflectionTestUtils.getField(idempotencyStore, "entries")).clear();
+        ResponseEntity<String> repeat = idempotencyStore.execute(SCOPE, key, Map.of("quantity", 1), String.class,
+                () -> ResponseEntity.status(HttpStatus.CREATED).body("order-" + runs.incrementAndGet()));
+
+        assertThat(runs).hasValue(1);
+        assertThat(repeat.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(repeat.getBody()).isEqualTo("order-1");
+        assertThat(repeat.getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER)).isEqualTo("true");
+    }
+
+    @Test
+    void aKeyOnlyMatchesTheSameRequest() {
+        String key = UUID.randomUUID().toString();
+        idempotencyStore.execute(SCOPE, key, Map.of("quantity", 1), String.class, () -> ResponseEntity.ok("order-1"));
+
+        assertThatThrownBy(() -> idempotencyStore.execute(SCOPE, key, Map.of("quantity", 2), String.class,
+                () -> ResponseEntity.ok("order-2")))
+                .hasMessageContaining("already used for a different request");
+        ((Map<?, ?>) ReflectionTestUtils.getField(idempotencyStore, "entries")).clear();
+        assertThatThrownBy(() -> idempotencyStore.execute(SCOPE, key, Map.of("quantity", 2), String.class,
+                () -> ResponseEntity.ok("order-2")))
+                .hasMessageContaining("already used for a different request");
+    }
+
+    @Test
+    void aFailedRequestCanBeRetriedWithItsKey() {
+        String key = UUID.randomUUID().toString();
+        assertThatThrownBy(() -> idempotencyStore.execute(SCOPE, key, Map.of("quantity", 1), String.class, () -> {
+            throw new IllegalArgumentException("Out of stock");
+        })).hasMessage("Out of stock");
+
+        ResponseEntity<String> retry = idempotencyStore.execute(SCOPE, key, Map.of("quantity", 1), String.class,
+                () -> ResponseEntity.ok("order-1"));
+        assertThat(retry.getBody()).isEqualTo("order-1");
+        assertThat(retry.getHeaders().containsKey(IdempotencyStore.REPLAYED_HEADER)).isFalse();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
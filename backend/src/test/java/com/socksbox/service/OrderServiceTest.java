@@ -0,0 +1,310 @@
+
+package com.socksbox.service;
+
+import com.socksbox.PostgresIntegrationTest;
+import com.socksbox.dto.CartItemDto;
+import com.socksbox.dto.OrderDto;
+import com.socksbox.dto.OrderItemDto;
+import com.socksbox.dto.ProductDto;
+import com.socksbox.entity.Address;
+import com.socksbox.entity.Brand;
+import com.socksbox.entity.Category;
+import com.socksbox.exception.InsufficientStockException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OrderServiceTest extends PostgresIntegrationTest {
+
+    private static final Address ADDRESS = new Address("1 Main St", "Springfield", "IL", "62701", "US");
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private CartService cartService;
+
+    @Autowired
+    private InventoryService inventoryService;
+
+    @Autowired
+    private OrderOutboxService orderOutboxService;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void failedCheckoutKeepsTheCartItFlushed() {
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", 1);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, new CartItemDto(null, product.getId(), null, 2, null, null, null, null));
+
+        assertThatThrownBy(() -> orderService.createOrderFromCart(userId, ADDRESS))
+                .isInstanceOf(InsufficientStockException.class);
+
+        // The line only ever reached the database through the checkout's flush
+        assertThat(storedQuantities(userId)).containsExactly(2);
+        assertThatThrownBy(() -> orderService.createOrderFromCart(userId, ADDRESS))
+                .isInstanceOf(InsufficientStockException.class);
+    }
+
+    @Test
+    void parallelCheckoutsNeverSellMoreThanTheStock() throws Exception {
+        int stock = 5;
+        int shoppers = 16;
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", stock);
+        List<Long> userIds = new ArrayList<>();
+        for (int i = 0; i < shoppers; i++) {
+            Long userId = createCustomer().getId();
+            cartService.addItemToCart(userId, new CartItemDto(null, product.getId(), null, 1, null, null, null, null));
+            userIds.add(userId);
+        }
+
+        assertThat(checkoutAll(userIds)).isEqualTo(stock);
+        assertThat(jdbcTemplate.queryForObject("SELECT inventory FROM products WHERE id = ?", Integer.class,
+                product.getId())).isZero();
+        assertThat(jdbcTemplate.queryForObject("SELECT COALESCE(SUM(quantity), 0) FROM order_items WHERE product_id = ?",
+                Integer.class, product.getId())).isEqualTo(stock);
+    }
+
+    @Test
+    void failedCheckoutPutsBackWhatItTookFromAllShards() {
+        Category category = createCategory();
+        Brand brand = createBrand();
+        ProductDto spread = createProduct(category, brand, "5.00", 4);
+        ProductDto scarce = createProduct(category, brand, "5.00", 4);
+        inventoryService.reshard(spread.getId(), 2, null);
+        inventoryService.reshard(scarce.getId(), 2, null);
+        Long userId = createCustomer().getId();
+        // No single shard holds 3, the second product does not hold 5 at all
+        cartService.addItemToCart(userId, new CartItemDto(null, spread.getId(), null, 3, null, null, null, null));
+        cartService.addItemToCart(userId, new CartItemDto(null, scarce.getId(), null, 5, null, null, null, null));
+
+        assertThatThrownBy(() -> orderService.createOrderFromCart(userId, ADDRESS))
+                .isInstanceOf(InsufficientStockException.class);
+
+        assertThat(inventoryService.getShards(spread.getId())).containsExactly(2, 2);
+        assertThat(jdbcTemplate.queryForList("SELECT quantity FROM inventory_shards WHERE product_id = ? ORDER BY shard",
+                Integer.class, spread.getId())).containsExactly(2, 2);
+    }
+
+    @Test
+    void concurrentCheckoutsOfOneCartPlaceOneOrder() throws Exception {
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, new CartItemDto(null, product.getId(), null, 1, null, null, null, null));
+
+        int checkouts = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(checkouts);
+        int placed = 0;
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < checkouts; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return orderService.createOrderFromCart(userId, ADDRESS);
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                    placed++;
+                } catch (ExecutionException e) {
+                    // The first order took every line, cleared from the cart or not
+                    assertThat(e.getCause()).hasMessage("Cannot create order from empty cart");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(placed).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("SELECT inventory FROM products WHERE id = ?", Integer.class,
+                product.getId())).isEqualTo(99);
+    }
+
+    @Test
+    void checkoutLeavesTheOrderedLinesOutOfTheCart() {
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, new CartItemDto(null, product.getId(), null, 2, null, null, null, null));
+
+        orderService.createOrderFromCart(userId, ADDRESS);
+
+        // Before the outbox got to the order
+        assertThat(cartService.getCartByUserId(userId).getItems()).isEmpty();
+        assertThat(pendingOrders(userId)).isEqualTo(1);
+    }
+
+    @Test
+    void aRetryingOrderEventOnlyKeepsItsOwnLinesOutOfTheNextOrder() {
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, new CartItemDto(null, product.getId(), null, 3, null, null, null, null));
+        Long itemId = cartService.getCartByUserId(userId).getItems().get(0).getId();
+        // An earlier order of 2 from the line, failed before and waiting for its next attempt
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.update(
+                "INSERT INTO order_outbox (type, order_id, user_id, payload, attempts, available_at, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)",
+                OrderOutboxService.ORDER_PLACED, 0L, userId,
+                "{\"cartItemQuantities\":{\"" + itemId + "\":2},\"productIds\":[" + product.getId() + "]}",
+                3, Timestamp.valueOf(LocalDateTime.now().plusMinutes(1)), now);
+
+        OrderDto order = orderService.createOrderFromCart(userId, ADDRESS);
+
+        assertThat(order.getItems()).extracting(OrderItemDto::getQuantity).containsExactly(1);
+        assertThat(jdbcTemplate.queryForObject("SELECT inventory FROM products WHERE id = ?", Integer.class,
+                product.getId())).isEqualTo(99);
+        assertThat(cartService.getCartByUserId(userId).getItems()).isEmpty();
+        // The new event took the old one over
+        assertThat(pendingOrders(userId)).isEqualTo(1);
+        orderOutboxService.dispatch();
+        assertThat(pendingOrders(userId)).isZero();
+        assertThat(storedQuantities(userId)).isEmpty();
+    }
+
+    @Test
+    void clearingTheCartKeepsWhatWasAddedAfterTheOrder() {
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, new CartItemDto(null, product.getId(), null, 2, null, null, null, null));
+        Long orderedItemId = cartService.getCartByUserId(userId).getItems().get(0).getId();
+        orderService.createOrderFromCart(userId, ADDRESS);
+
+        // Added to the same line before the outbox got to the order
+        cartService.addItemToCart(userId, new CartItemDto(null, product.getId(), null, 1, null, null, null, null));
+        orderOutboxService.dispatch();
+
+        List<CartItemDto> items = cartService.getCartByUserId(userId).getItems();
+        assertThat(items).extracting(CartItemDto::getQuantity).containsExactly(1);
+        assertThat(items.get(0).getId()).isNotEqualTo(orderedItemId);
+        // A repeated delivery of the same order
+        cartService.removeOrderedItems(userId, Map.of(orderedItemId, 2));
+        assertThat(cartService.getCartByUserId(userId).getItems()).isEqualTo(items);
+        cartService.flushCart(userId);
+        assertThat(storedQuantities(userId)).containsExactly(1);
+        assertThat(pendingOrders(userId)).isZero();
+    }
+
+    @Test
+    void aFailingOutboxEventDoesNotHoldUpTheBatch() {
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", 100);
+        Long userId = createCustomer().getId();
+        cartService.addItemToCart(userId, new CartItemDto(null, product.getId(), null, 2, null, null, null, null));
+        // Claimed first, the user is gone, so loading their cart fails in the database
+        Long goneUserId = jdbcTemplate.queryForObject("SELECT MAX(id) + 1000 FROM users", Long.class);
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.update(
+                "INSERT INTO order_outbox (type, order_id, user_id, payload, available_at, created_at) VALUES (?, ?, ?, ?, ?, ?)",
+                OrderOutboxService.ORDER_PLACED, 0L, goneUserId, "{\"cartItemQuantities\":{\"1\":1},\"productIds\":[]}",
+                now, now);
+        orderService.createOrderFromCart(userId, ADDRESS);
+
+        orderOutboxService.dispatch();
+
+        assertThat(cartService.getCartByUserId(userId).getItems()).isEmpty();
+        assertThat(pendingOrders(userId)).isZero();
+        Map<String, Object> failed = jdbcTemplate.queryForMap(
+                "SELECT attempts, processed_at, last_error FROM order_outbox WHERE user_id = ?", goneUserId);
+        assertThat(failed.get("attempts")).isEqualTo(1);
+        assertThat(failed.get("processed_at")).isNull();
+        assertThat(failed.get("last_error")).isNotNull();
+    }
+
+    @Test
+    void checkoutsWithAnIdempotencyKeyNeedOneConnectionEach() throws Exception {
+        // More checkouts than the pool has connections, each with a cart still to flush
+        int checkouts = 24;
+        ProductDto product = createProduct(createCategory(), createBrand(), "5.00", checkouts);
+        List<Long> userIds = new ArrayList<>();
+        for (int i = 0; i < checkouts; i++) {
+            Long userId = createCustomer().getId();
+            cartService.addItemToCart(userId, new CartItemDto(null, product.getId(), null, 1, null, null, null, null));
+            userIds.add(userId);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(checkouts);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> results = new ArrayList<>();
+            for (Long userId : userIds) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return idempotencyStore.execute("orders:" + userId, UUID.randomUUID().toString(), ADDRESS,
+                            OrderDto.class, () -> ResponseEntity.ok(orderService.createOrderFromCart(userId, ADDRESS)));
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(20, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(jdbcTemplate.queryForObject("SELECT inventory FROM products WHERE id = ?", Integer.class,
+                product.getId())).isZero();
+    }
+
+    // Runs every checkout at once, the number that succeeded
+    private int checkoutAll(List<Long> userIds) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(userIds.size());
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> checkouts = new ArrayList<>();
+            for (Long userId : userIds) {
+                checkouts.add(executor.submit(() -> {
+                    start.await();
+                    return orderService.createOrderFromCart(userId, ADDRESS);
+                }));
+            }
+            start.countDown();
+            int placed = 0;
+            for (Future<?> checkout : checkouts) {
+                try {
+                    checkout.get();
+                    placed++;
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause()).isInstanceOf(InsufficientStockException.class);
+                }
+            }
+            return placed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int pendingOrders(Long userId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM order_outbox WHERE user_id = ? AND type = ? AND processed_at IS NULL",
+                Integer.class, userId, OrderOutboxService.ORDER_PLACED);
+    }
+
+    private List<Integer> storedQuantities(Long userId) {
+        return jdbcTemplate.queryForList(
+                "SELECT ci.quantity FROM cart_items ci JOIN carts c ON c.id = ci.cart_id WHERE c.user_id = ?",
+                Integer.class, userId);
+    }
+}
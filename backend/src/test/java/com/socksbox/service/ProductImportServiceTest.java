@@ -0,0 +1,80 @@
+
+package com.socksbox.service;
+
+import com.socksbox.PostgresIntegrationTest;
+import com.socksbox.dto.ProductImportErrorDto;
+import com.socksbox.dto.ProductImportResultDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProductImportServiceTest extends PostgresIntegrationTest {
+
+    @Autowired
+    private ProductImportService productImportService;
+
+    @Test
+    void quotedFieldsMaySpanLines() throws IOException {
+        ProductImportResultDto result = importCsv("""
+                name,description,price,inventory
+                Wool socks,"Warm,
+                soft ""merino"" wool",12.50,3
+                Cotton socks,Plain,4.00,9
+                """);
+
+        assertThat(result.getImported()).isEqualTo(2);
+        assertThat(result.getFailed()).isZero();
+    }
+
+    @Test
+    void unterminatedQuoteIsRejectedFromTheLineItStarts() throws IOException {
+        ProductImportResultDto result = importCsv("""
+                name,description,price,inventory
+                Wool socks,Warm,12.50,3
+                Cotton socks,"Plain,4.00,9
+                Silk socks,Smooth,20.00,1
+                """);
+
+        assertThat(result.getImported()).isEqualTo(1);
+        assertThat(result.getFailed()).isEqualTo(1);
+        ProductImportErrorDto error = result.getErrors().get(0);
+        assertThat(error.getLine()).isEqualTo(3);
+        assertThat(error.getMessage()).contains("starting on line 3", "lines 3 to 4");
+    }
+
+    @Test
+    void unterminatedQuoteInHeaderFailsTheImport() {
+        assertThatThrownBy(() -> importCsv("name,\"price\ninventory\n"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("starting on line 1");
+    }
+
+    @Test
+    void strayQuoteStopsTheImportWithoutReadingTheRestOfTheFile() throws IOException {
+        StringBuilder csv = new StringBuilder("name,description,price,inventory\n");
+        csv.append("Wool socks,Warm,12.50,3\n");
+        csv.append("Cotton socks,\"Plain,4.00,9\n");
+        for (int i = 0; i < 100_000; i++) {
+            csv.append("Silk socks ").append(i).append(",Smooth,20.00,1\n");
+        }
+
+        ProductImportResultDto result = importCsv(csv.toString());
+
+        assertThat(result.getImported()).isEqualTo(1);
+        assertThat(result.getFailed()).isEqualTo(1);
+        ProductImportErrorDto error = result.getErrors().get(0);
+        assertThat(error.getLine()).isEqualTo(3);
+        assertThat(error.getMessage()).contains("starting on line 3 is not closed within", "from 3 on");
+    }
+
+    private ProductImportResultDto importCsv(String csv) throws IOException {
+        return productImportService.importProducts(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+                ProductFileFormat.CSV);
+    }
+}
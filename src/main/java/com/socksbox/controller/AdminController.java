@@ -2,9 +2,11 @@
 package com.socksbox.controller;
 
 import com.socksbox.dto.AnalyticsDataDto;
+import com.socksbox.dto.CartLockStatsDto;
 import com.socksbox.dto.ProductSalesDto;
 import com.socksbox.dto.UserDto;
 import com.socksbox.service.AnalyticsService;
+import com.socksbox.service.CartLocks;
 import com.socksbox.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -26,6 +28,9 @@ public class AdminController {
     @Autowired
     private AnalyticsService analyticsService;
 
+    @Autowired
+    private CartLocks cartLocks;
+
     // Customer management endpoints
     @GetMapping("/customers")
     public ResponseEntity<List<UserDto>> getAllCustomers() {
@@ -57,4 +62,9 @@ public class AdminController {
     public ResponseEntity<Map<String, Long>> getCustomerAcquisitionData() {
         return ResponseEntity.ok(analyticsService.getCustomerAcquisitionData());
     }
+
+    @GetMapping("/analytics/cart-locks")
+    public ResponseEntity<CartLockStatsDto> getCartLockStats() {
+        return ResponseEntity.ok(cartLocks.getStats());
+    }
 }
@@ -25,10 +25,16 @@ public class CartController {
     private com.socksbox.service.UserService userService;
 
     @GetMapping
-    public ResponseEntity<CartDto> getUserCart(@AuthenticationPrincipal UserDetails userDetails) {
+    public ResponseEntity<CartDto> getUserCart(
+            @AuthenticationPrincipal UserDetails userDetails,
+            @RequestParam(required = false) Long since) {
         String email = userDetails.getUsername();
         Long userId = userService.getUserByEmail(email).getId();
-        return ResponseEntity.ok(cartService.getCartByUserId(userId));
+        CartDto cart = cartService.getCartChanges(userId, since);
+        if (cart == null) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        }
+        return ResponseEntity.ok(cart);
     }
 
     @PostMapping
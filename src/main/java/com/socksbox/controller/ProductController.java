@@ -2,12 +2,15 @@
 package com.socksbox.controller;
 
 import com.socksbox.dto.ProductDto;
+import com.socksbox.dto.ProductPageDto;
 import com.socksbox.service.ProductService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import java.util.List;
@@ -36,6 +39,22 @@ public class ProductController {
         return ResponseEntity.ok(filteredProducts);
     }
 
+    @GetMapping("/page")
+    public ResponseEntity<ProductPageDto> getProductPage(
+            @RequestParam(defaultValue = "id") String sort,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(productService.getProductPage(sort, cursor, limit));
+    }
+
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllProducts() {
+        StreamingResponseBody body = productService::streamAllProducts;
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
     @GetMapping("/featured")
     public ResponseEntity<List<ProductDto>> getFeaturedProducts() {
         return ResponseEntity.ok(productService.getFeaturedProducts());
@@ -15,4 +15,10 @@ public class CartDto {
     private Long id;
     private Long userId;
     private List<CartItemDto> items = new ArrayList<>();
+    private Long version;
+
+    // When true, items only holds the lines changed since the requested version
+    // and removedItemIds the lines dropped since then
+    private boolean delta;
+    private List<Long> removedItemIds = new ArrayList<>();
 }
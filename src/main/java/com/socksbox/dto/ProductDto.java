@@ -18,6 +18,9 @@ public class ProductDto {
     private String description;
     private BigDecimal price;
     private Integer inventory;
+
+    // Inventory minus what shoppers currently hold in their carts
+    private Integer available;
     private Boolean featured = false;
     private List<String> images = new ArrayList<>();
     private List<String> colors = new ArrayList<>();
@@ -8,7 +8,8 @@ import lombok.NoArgsConstructor;
 import javax.persistence.*;
 
 @Entity
-@Table(name = "cart_items")
+@Table(name = "cart_items", uniqueConstraints = @UniqueConstraint(
+        name = "uk_cart_items_line", columnNames = {"cart_id", "product_id", "color", "size"}))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
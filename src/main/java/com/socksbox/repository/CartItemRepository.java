@@ -0,0 +1,22 @@
+package com.socksbox.repository;
+
+import com.socksbox.entity.CartItem;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface CartItemRepository extends JpaRepository<CartItem, Long> {
+
+    // Adds to the line for this product, color and size, creating it if needed, in one statement.
+    // Relies on the unique key over (cart_id, product_id, color, size) declared on CartItem.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "INSERT INTO cart_items (cart_id, product_id, quantity, color, size) " +
+            "VALUES (:cartId, :productId, :quantity, :color, :size) " +
+            "ON DUPLICATE KEY UPDATE quantity = quantity + VALUES(quantity)", nativeQuery = true)
+    int addQuantity(@Param("cartId") Long cartId,
+                    @Param("productId") Long productId,
+                    @Param("quantity") Integer quantity,
+                    @Param("color") String color,
+                    @Param("size") String size);
+}
@@ -0,0 +1,70 @@
+
+package com.socksbox.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stock changes as conditional, set-based updates on {@code products.inventory}. The
+ * database checks and applies each change in one statement, so concurrent checkouts
+ * cannot both sell the last unit the way reading the entity, subtracting and saving it
+ * back can. Rows are always updated in product id order, which keeps two checkouts of
+ * overlapping carts from deadlocking on each other.
+ */
+@Repository
+public class InventoryJdbcRepository {
+
+    private static final String DECREMENT =
+            "UPDATE products SET inventory = inventory - ? WHERE id = ? AND inventory >= ?";
+
+    private static final String INCREMENT =
+            "UPDATE products SET inventory = inventory + ? WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Takes the quantities off stock in one batch, each product only if it has enough
+     * left, and returns the products that did not. Those rows are left untouched, the
+     * others are decremented, so the caller's transaction must roll back when any
+     * product comes back.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public List<Long> decrementAll(Map<Long, Integer> quantities) {
+        List<Long> productIds = new ArrayList<>(new TreeMap<>(quantities).keySet());
+        List<Object[]> rows = new ArrayList<>(productIds.size());
+        for (Long productId : productIds) {
+            int quantity = quantities.get(productId);
+            rows.add(new Object[]{quantity, productId, quantity});
+        }
+
+        int[] counts = jdbcTemplate.batchUpdate(DECREMENT, rows);
+        List<Long> insufficient = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                insufficient.add(productIds.get(i));
+            }
+        }
+        return insufficient;
+    }
+
+    /**
+     * Puts the quantities back on stock in one batch.
+     */
+    @Transactional
+    public void incrementAll(Map<Long, Integer> quantities) {
+        List<Object[]> rows = new ArrayList<>(quantities.size());
+        for (Map.Entry<Long, Integer> entry : new TreeMap<>(quantities).entrySet()) {
+            rows.add(new Object[]{entry.getValue(), entry.getKey()});
+        }
+        jdbcTemplate.batchUpdate(INCREMENT, rows);
+    }
+}
@@ -2,10 +2,15 @@
 package com.socksbox.repository;
 
 import com.socksbox.entity.Product;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
+import javax.persistence.QueryHint;
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface ProductRepository extends JpaRepository<Product, Long> {
     List<Product> findByFeatured(Boolean featured);
@@ -18,4 +23,16 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
            "(:minPrice IS NULL OR p.price >= :minPrice) AND " +
            "(:maxPrice IS NULL OR p.price <= :maxPrice)")
     List<Product> findByFilters(Long categoryId, Long brandId, Double minPrice, Double maxPrice);
+
+    // Keyset pages: seek past the last row of the previous page instead of using OFFSET
+    List<Product> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    @Query("SELECT p FROM Product p WHERE p.price > :price OR (p.price = :price AND p.id > :id) " +
+           "ORDER BY p.price ASC, p.id ASC")
+    List<Product> findPricePageAfter(BigDecimal price, Long id, Pageable pageable);
+
+    // Needs useCursorFetch=true on the MySQL URL, otherwise Connector/J buffers the whole result
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query("SELECT p FROM Product p ORDER BY p.id")
+    Stream<Product> streamAllOrderById();
 }
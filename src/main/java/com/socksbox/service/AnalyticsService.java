@@ -5,6 +5,7 @@ import com.socksbox.dto.AnalyticsDataDto;
 import com.socksbox.dto.ProductSalesDto;
 import com.socksbox.entity.Order;
 import com.socksbox.entity.OrderItem;
+import com.socksbox.entity.User;
 import com.socksbox.repository.OrderRepository;
 import com.socksbox.repository.ProductRepository;
 import com.socksbox.repository.UserRepository;
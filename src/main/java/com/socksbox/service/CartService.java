@@ -7,18 +7,18 @@ import com.socksbox.entity.Cart;
 import com.socksbox.entity.CartItem;
 import com.socksbox.entity.Product;
 import com.socksbox.entity.User;
-import com.socksbox.exception.InsufficientStockException;
 import com.socksbox.exception.ResourceNotFoundException;
+import com.socksbox.repository.CartItemRepository;
 import com.socksbox.repository.CartRepository;
 import com.socksbox.repository.ProductRepository;
 import com.socksbox.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -27,129 +27,161 @@ public class CartService {
     @Autowired
     private CartRepository cartRepository;
 
+    @Autowired
+    private CartItemRepository cartItemRepository;
+
     @Autowired
     private ProductRepository productRepository;
 
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private CartLocks cartLocks;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private CartReadCache cartReadCache;
+
+    @Autowired
+    private InventoryReservations inventoryReservations;
+
     public CartDto getCartByUserId(Long userId) {
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user with id " + userId));
-        return convertToDto(cart);
+        return cachedCart(userId).getCart();
+    }
+
+    /**
+     * The cart as seen by a client holding version {@code since}: {@code null} when
+     * nothing changed, otherwise only the changed lines when possible.
+     */
+    public CartDto getCartChanges(Long userId, Long since) {
+        return cachedCart(userId).changesSince(since);
     }
 
-    @Transactional
     public CartDto addItemToCart(Long userId, CartItemDto cartItemDto) {
-        // Find user's cart
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseGet(() -> {
-                    // Create new cart if not exists
-                    User user = userRepository.findById(userId)
-                            .orElseThrow(() -> new ResourceNotFoundException("User not found with id " + userId));
-                    Cart newCart = new Cart();
-                    newCart.setUser(user);
-                    return cartRepository.save(newCart);
-                });
-        
-        // Find product
-        Product product = productRepository.findById(cartItemDto.getProductId())
-                .orElseThrow(() -> new ResourceNotFoundException("Product not found with id " + cartItemDto.getProductId()));
-        
-        // Check stock
-        if (product.getInventory() < cartItemDto.getQuantity()) {
-            throw new InsufficientStockException("Not enough stock available for product " + product.getName());
-        }
+        return locked(userId, () -> {
+            // Find user's cart
+            Cart cart = cartRepository.findByUserId(userId)
+                    .orElseGet(() -> {
+                        // Create new cart if not exists
+                        User user = userRepository.findById(userId)
+                                .orElseThrow(() -> new ResourceNotFoundException("User not found with id " + userId));
+                        Cart newCart = new Cart();
+                        newCart.setUser(user);
+                        return cartRepository.save(newCart);
+                    });
         
-        // Find if product already in cart
-        Optional<CartItem> existingItem = cart.getItems().stream()
-                .filter(item -> item.getProduct().getId().equals(cartItemDto.getProductId()) &&
-                               item.getColor().equals(cartItemDto.getColor()) &&
-                               item.getSize().equals(cartItemDto.getSize()))
-                .findFirst();
+            // Find product
+            Product product = productRepository.findById(cartItemDto.getProductId())
+                    .orElseThrow(() -> new ResourceNotFoundException("Product not found with id " + cartItemDto.getProductId()));
         
-        if (existingItem.isPresent()) {
-            // Update quantity
-            CartItem item = existingItem.get();
-            int newQuantity = item.getQuantity() + cartItemDto.getQuantity();
-            
-            // Check if new quantity exceeds stock
-            if (product.getInventory() < newQuantity) {
-                throw new InsufficientStockException("Not enough stock available for product " + product.getName());
-            }
-            
-            item.setQuantity(newQuantity);
-        } else {
-            // Add new item
-            CartItem newItem = new CartItem();
-            newItem.setCart(cart);
-            newItem.setProduct(product);
-            newItem.setQuantity(cartItemDto.getQuantity());
-            newItem.setColor(cartItemDto.getColor());
-            newItem.setSize(cartItemDto.getSize());
-            cart.getItems().add(newItem);
-        }
-        
-        Cart updatedCart = cartRepository.save(cart);
-        return convertToDto(updatedCart);
+            // Unique keys treat NULLs as distinct, so a missing color or size is stored as empty
+            String color = cartItemDto.getColor() == null ? "" : cartItemDto.getColor();
+            String size = cartItemDto.getSize() == null ? "" : cartItemDto.getSize();
+
+            // Hold stock for what the cart will contain of this product afterwards
+            inventoryReservations.reserve(userId, product,
+                    quantityInCart(cart, product.getId()) + cartItemDto.getQuantity());
+
+            // Insert the line or add to it in one statement, concurrent adds cannot create duplicates
+            cartItemRepository.addQuantity(cart.getId(), product.getId(), cartItemDto.getQuantity(), color, size);
+
+            Cart updatedCart = cartRepository.findById(cart.getId())
+                    .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user with id " + userId));
+            return convertToDto(updatedCart);
+        });
     }
 
-    @Transactional
     public CartDto updateCartItemQuantity(Long userId, Long cartItemId, int quantity) {
-        // Find user's cart
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user with id " + userId));
+        return locked(userId, () -> {
+            // Find user's cart
+            Cart cart = cartRepository.findByUserId(userId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user with id " + userId));
         
-        // Find cart item
-        CartItem cartItem = cart.getItems().stream()
-                .filter(item -> item.getId().equals(cartItemId))
-                .findFirst()
-                .orElseThrow(() -> new ResourceNotFoundException("Cart item not found with id " + cartItemId));
+            // Find cart item
+            CartItem cartItem = cart.getItems().stream()
+                    .filter(item -> item.getId().equals(cartItemId))
+                    .findFirst()
+                    .orElseThrow(() -> new ResourceNotFoundException("Cart item not found with id " + cartItemId));
         
-        // Check if quantity is valid
-        if (quantity <= 0) {
-            // Remove item if quantity is 0 or negative
-            cart.getItems().remove(cartItem);
-        } else {
-            // Check stock
+            // Hold stock for the other lines of this product plus the new quantity
             Product product = cartItem.getProduct();
-            if (product.getInventory() < quantity) {
-                throw new InsufficientStockException("Not enough stock available for product " + product.getName());
+            int otherLines = quantityInCart(cart, product.getId()) - cartItem.getQuantity();
+            inventoryReservations.reserve(userId, product, otherLines + Math.max(quantity, 0));
+
+            // Check if quantity is valid
+            if (quantity <= 0) {
+                // Remove item if quantity is 0 or negative
+                cart.getItems().remove(cartItem);
+            } else {
+                cartItem.setQuantity(quantity);
             }
-            
-            cartItem.setQuantity(quantity);
-        }
         
-        Cart updatedCart = cartRepository.save(cart);
-        return convertToDto(updatedCart);
+            Cart updatedCart = cartRepository.save(cart);
+            return convertToDto(updatedCart);
+        });
     }
 
-    @Transactional
     public CartDto removeItemFromCart(Long userId, Long cartItemId) {
-        // Find user's cart
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user with id " + userId));
-        
-        // Find and remove cart item
-        boolean removed = cart.getItems().removeIf(item -> item.getId().equals(cartItemId));
+        return locked(userId, () -> {
+            // Find user's cart
+            Cart cart = cartRepository.findByUserId(userId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user with id " + userId));
         
-        if (!removed) {
-            throw new ResourceNotFoundException("Cart item not found with id " + cartItemId);
-        }
+            // Find and remove cart item
+            CartItem cartItem = cart.getItems().stream()
+                    .filter(item -> item.getId().equals(cartItemId))
+                    .findFirst()
+                    .orElseThrow(() -> new ResourceNotFoundException("Cart item not found with id " + cartItemId));
+            cart.getItems().remove(cartItem);
+
+            // Keep holding stock only for the remaining lines of this product
+            Long productId = cartItem.getProduct().getId();
+            inventoryReservations.reserve(userId, cartItem.getProduct(), quantityInCart(cart, productId));
         
-        Cart updatedCart = cartRepository.save(cart);
-        return convertToDto(updatedCart);
+            Cart updatedCart = cartRepository.save(cart);
+            return convertToDto(updatedCart);
+        });
     }
 
-    @Transactional
     public CartDto clearCart(Long userId) {
-        // Find user's cart
-        Cart cart = cartRepository.findByUserId(userId)
-                .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user with id " + userId));
+        return locked(userId, () -> {
+            // Find user's cart
+            Cart cart = cartRepository.findByUserId(userId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user with id " + userId));
         
-        cart.getItems().clear();
-        Cart updatedCart = cartRepository.save(cart);
-        return convertToDto(updatedCart);
+            cart.getItems().clear();
+            inventoryReservations.releaseAllAfterCommit(userId);
+            Cart updatedCart = cartRepository.save(cart);
+            return convertToDto(updatedCart);
+        });
+    }
+
+    /**
+     * Runs a cart change in its own transaction while holding the user's lock, so
+     * concurrent requests of one user apply one after another against committed state.
+     * The committed cart replaces the cached one before the lock is released.
+     */
+    private CartDto locked(Long userId, Supplier<CartDto> change) {
+        return cartLocks.withLock(userId, () ->
+                cartReadCache.put(userId, transactionTemplate.execute(status -> change.get())));
+    }
+
+    private static int quantityInCart(Cart cart, Long productId) {
+        return cart.getItems().stream()
+                .filter(item -> item.getProduct().getId().equals(productId))
+                .mapToInt(CartItem::getQuantity)
+                .sum();
+    }
+
+    private CartReadCache.CachedCart cachedCart(Long userId) {
+        return cartReadCache.get(userId, () -> {
+            Cart cart = cartRepository.findByUserId(userId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Cart not found for user with id " + userId));
+            return convertToDto(cart);
+        });
     }
 
     private CartDto convertToDto(Cart cart) {
@@ -0,0 +1,248 @@
+
+package com.socksbox.service;
+
+import com.socksbox.entity.Product;
+import com.socksbox.exception.InsufficientStockException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Soft holds on stock for what shoppers have in their carts. Each user holds at most
+ * one reservation per product, for the total quantity of that product in the cart,
+ * and it lapses after a configurable time unless the cart changes again. Expiry runs
+ * off a {@link TimeWheel}, so holding many reservations costs nothing per tick.
+ * <p>
+ * Available stock is the product's inventory minus everything other users hold, which
+ * is what cart changes and checkout check against. Reservations live in memory and
+ * only in this instance, the {@code products} row is never locked for them.
+ */
+@Component
+public class InventoryReservations {
+
+    private static final int WHEEL_SLOTS = 1024;
+
+    @Value("${inventory.reservation.ttl-ms:900000}")
+    private long ttlMillis;
+
+    @Value("${inventory.reservation.tick-ms:1000}")
+    private long tickMillis;
+
+    private final Map<Long, ProductReservations> products = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> productsByUser = new ConcurrentHashMap<>();
+    private TimeWheel<Reservation> wheel;
+
+    @PostConstruct
+    void init() {
+        wheel = new TimeWheel<>(WHEEL_SLOTS, tickMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * Stock nobody holds a reservation for.
+     */
+    public int available(Long productId, int inventory) {
+        ProductReservations reservations = products.get(productId);
+        if (reservations == null) {
+            return inventory;
+        }
+        synchronized (reservations) {
+            return inventory - reservations.reserved;
+        }
+    }
+
+    /**
+     * Stock the user can have: what nobody holds plus what the user holds already.
+     */
+    public int availableTo(Long userId, Long productId, int inventory) {
+        ProductReservations reservations = products.get(productId);
+        if (reservations == null) {
+            return inventory;
+        }
+        synchronized (reservations) {
+            Reservation own = reservations.byUser.get(userId);
+            return inventory - reservations.reserved + (own != null ? own.quantity : 0);
+        }
+    }
+
+    /**
+     * Sets the user's hold on the product to {@code quantity} and restarts its time to
+     * live. Fails when the hold grows beyond what other users leave available; shrinking
+     * always succeeds. Within a transaction the hold goes back to what it was if the
+     * transaction rolls back.
+     */
+    public void reserve(Long userId, Product product, int quantity) {
+        if (quantity <= 0) {
+            Reservation released = remove(userId, product.getId());
+            if (released != null) {
+                restoreOnRollback(released, null);
+            }
+            return;
+        }
+        ProductReservations reservations = products.computeIfAbsent(product.getId(), id -> new ProductReservations());
+        Reservation own;
+        Reservation reservation;
+        synchronized (reservations) {
+            own = reservations.byUser.get(userId);
+            int held = own != null ? own.quantity : 0;
+            if (quantity > held && product.getInventory() - (reservations.reserved - held) < quantity) {
+                throw new InsufficientStockException("Not enough stock available for product " + product.getName());
+            }
+            reservation = new Reservation(userId, product.getId(), quantity, System.currentTimeMillis() + ttlMillis);
+            hold(reservations, reservation);
+        }
+        // The replaced reservation stays in the wheel and is skipped when its slot comes up
+        wheel.schedule(reservation, reservation.expiresAt);
+        restoreOnRollback(own, reservation);
+    }
+
+    public void release(Long userId, Long productId) {
+        remove(userId, productId);
+    }
+
+    public void releaseAll(Long userId) {
+        Set<Long> productIds = productsByUser.get(userId);
+        if (productIds == null) {
+            return;
+        }
+        for (Long productId : new ArrayList<>(productIds)) {
+            release(userId, productId);
+        }
+    }
+
+    /**
+     * Releases the user's holds once the current transaction commits, for checkout
+     * where the stock is taken for real.
+     */
+    public void releaseAllAfterCommit(Long userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            releaseAll(userId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                releaseAll(userId);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.reservation.tick-ms:1000}")
+    public void expire() {
+        for (Reservation reservation : wheel.advance(System.currentTimeMillis())) {
+            ProductReservations reservations = products.get(reservation.productId);
+            synchronized (reservations) {
+                // Only the user's current reservation counts, replaced ones are stale
+                if (reservations.byUser.remove(reservation.userId, reservation)) {
+                    reservations.reserved -= reservation.quantity;
+                    forget(reservation.userId, reservation.productId);
+                }
+            }
+        }
+    }
+
+    private Reservation remove(Long userId, Long productId) {
+        ProductReservations reservations = products.get(productId);
+        if (reservations == null) {
+            return null;
+        }
+        synchronized (reservations) {
+            Reservation own = reservations.byUser.remove(userId);
+            if (own != null) {
+                reservations.reserved -= own.quantity;
+                forget(userId, productId);
+            }
+            return own;
+        }
+    }
+
+    // Called while holding the product's monitor
+    private void hold(ProductReservations reservations, Reservation reservation) {
+        Reservation replaced = reservations.byUser.put(reservation.userId, reservation);
+        reservations.reserved += reservation.quantity - (replaced != null ? replaced.quantity : 0);
+        productsByUser.compute(reservation.userId, (id, productIds) -> {
+            Set<Long> ids = productIds != null ? productIds : ConcurrentHashMap.<Long>newKeySet();
+            ids.add(reservation.productId);
+            return ids;
+        });
+    }
+
+    /**
+     * Puts {@code previous} back in place of {@code current} when the transaction the
+     * change was made in rolls back. Either may be {@code null} for no hold.
+     */
+    private void restoreOnRollback(Reservation previous, Reservation current) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        Reservation changed = current != null ? current : previous;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    restore(changed.userId, changed.productId, previous, current);
+                }
+            }
+        });
+    }
+
+    private void restore(Long userId, Long productId, Reservation previous, Reservation current) {
+        ProductReservations reservations = products.computeIfAbsent(productId, id -> new ProductReservations());
+        Reservation restored = null;
+        synchronized (reservations) {
+            // Expired or changed again since, there is nothing of this change left to undo
+            if (reservations.byUser.get(userId) != current) {
+                return;
+            }
+            if (current != null) {
+                reservations.byUser.remove(userId);
+                reservations.reserved -= current.quantity;
+                forget(userId, productId);
+            }
+            if (previous != null) {
+                // A fresh entry, the wheel may already have passed the slot of the old one
+                restored = new Reservation(userId, productId, previous.quantity, previous.expiresAt);
+                hold(reservations, restored);
+            }
+        }
+        if (restored != null) {
+            wheel.schedule(restored, restored.expiresAt);
+        }
+    }
+
+    private void forget(Long userId, Long productId) {
+        productsByUser.computeIfPresent(userId, (id, productIds) -> {
+            productIds.remove(productId);
+            return productIds.isEmpty() ? null : productIds;
+        });
+    }
+
+    private static final class ProductReservations {
+
+        private final Map<Long, Reservation> byUser = new HashMap<>();
+        private int reserved;
+    }
+
+    private static final class Reservation {
+
+        private final Long userId;
+        private final Long productId;
+        private final int quantity;
+        private final long expiresAt;
+
+        private Reservation(Long userId, Long productId, int quantity, long expiresAt) {
+            this.userId = userId;
+            this.productId = productId;
+            this.quantity = quantity;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -7,8 +7,8 @@ import com.socksbox.entity.*;
 import com.socksbox.exception.InsufficientStockException;
 import com.socksbox.exception.ResourceNotFoundException;
 import com.socksbox.repository.CartRepository;
+import com.socksbox.repository.InventoryJdbcRepository;
 import com.socksbox.repository.OrderRepository;
-import com.socksbox.repository.ProductRepository;
 import com.socksbox.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -17,7 +17,9 @@ import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -34,7 +36,13 @@ public class OrderService {
     private UserRepository userRepository;
 
     @Autowired
-    private ProductRepository productRepository;
+    private InventoryJdbcRepository inventoryJdbcRepository;
+
+    @Autowired
+    private CartReadCache cartReadCache;
+
+    @Autowired
+    private InventoryReservations inventoryReservations;
 
     public List<OrderDto> getAllOrders() {
         return orderRepository.findAll().stream()
@@ -66,18 +74,24 @@ public class OrderService {
             throw new RuntimeException("Cannot create order from empty cart");
         }
 
-        // Validate stock and reserve inventory
+        // Stock other shoppers hold is not available
+        Map<Long, Integer> quantities = new HashMap<>();
+        Map<Long, Product> products = new HashMap<>();
         for (CartItem cartItem : cart.getItems()) {
             Product product = cartItem.getProduct();
-            int quantity = cartItem.getQuantity();
-            
-            if (product.getInventory() < quantity) {
+            int quantity = quantities.merge(product.getId(), cartItem.getQuantity(), Integer::sum);
+            products.put(product.getId(), product);
+
+            if (inventoryReservations.availableTo(userId, product.getId(), product.getInventory()) < quantity) {
                 throw new InsufficientStockException("Not enough stock available for product " + product.getName());
             }
-            
-            // Update inventory
-            product.setInventory(product.getInventory() - quantity);
-            productRepository.save(product);
+        }
+
+        // The database has the final say, stock may have gone since the products were read
+        List<Long> insufficient = inventoryJdbcRepository.decrementAll(quantities);
+        if (!insufficient.isEmpty()) {
+            throw new InsufficientStockException("Not enough stock available for product "
+                    + products.get(insufficient.get(0)).getName());
         }
 
         // Create new order
@@ -125,6 +139,8 @@ public class OrderService {
         // Clear the cart after creating the order
         cart.getItems().clear();
         cartRepository.save(cart);
+        cartReadCache.invalidateAfterCommit(userId);
+        inventoryReservations.releaseAllAfterCommit(userId);
         
         return convertToDto(savedOrder);
     }
@@ -134,17 +150,17 @@ public class OrderService {
         Order order = orderRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Order not found with id " + id));
         
-        order.setStatus(status);
-        
         // If order is cancelled, return items to inventory
-        if (status == Order.Status.CANCELLED) {
+        if (status == Order.Status.CANCELLED && order.getStatus() != Order.Status.CANCELLED) {
+            Map<Long, Integer> quantities = new HashMap<>();
             for (OrderItem orderItem : order.getItems()) {
-                Product product = orderItem.getProduct();
-                product.setInventory(product.getInventory() + orderItem.getQuantity());
-                productRepository.save(product);
+                quantities.merge(orderItem.getProduct().getId(), orderItem.getQuantity(), Integer::sum);
             }
+            inventoryJdbcRepository.incrementAll(quantities);
         }
         
+        order.setStatus(status);
+        
         Order updatedOrder = orderRepository.save(order);
         return convertToDto(updatedOrder);
     }
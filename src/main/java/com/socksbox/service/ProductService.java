@@ -1,7 +1,10 @@
 
 package com.socksbox.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.socksbox.dto.ProductDto;
+import com.socksbox.dto.ProductPageDto;
 import com.socksbox.entity.Brand;
 import com.socksbox.entity.Category;
 import com.socksbox.entity.Product;
@@ -10,14 +13,28 @@ import com.socksbox.repository.BrandRepository;
 import com.socksbox.repository.CategoryRepository;
 import com.socksbox.repository.ProductRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
-
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class ProductService {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+
     @Autowired
     private ProductRepository productRepository;
 
@@ -27,12 +44,80 @@ public class ProductService {
     @Autowired
     private BrandRepository brandRepository;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private InventoryReservations inventoryReservations;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     public List<ProductDto> getAllProducts() {
         return productRepository.findAll().stream()
                 .map(this::convertToDto)
                 .collect(Collectors.toList());
     }
 
+    @Transactional(readOnly = true)
+    public ProductPageDto getProductPage(String sort, String cursor, Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        boolean byPrice = "price".equalsIgnoreCase(sort);
+        if (!byPrice && sort != null && !"id".equalsIgnoreCase(sort)) {
+            throw new RuntimeException("Unsupported sort " + sort + ", expected id or price");
+        }
+
+        // Ids and prices are always positive, so (0, 0) sorts before every row
+        long afterId = 0L;
+        BigDecimal afterPrice = BigDecimal.ZERO;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String[] parts = decodeCursor(cursor, byPrice);
+                afterId = Long.parseLong(parts[1]);
+                if (byPrice) {
+                    afterPrice = new BigDecimal(parts[2]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException("Invalid product cursor");
+            }
+        }
+
+        // Fetch one extra row to learn whether another page exists without a count query
+        PageRequest pageRequest = PageRequest.of(0, pageSize + 1);
+        List<Product> products = byPrice
+                ? productRepository.findPricePageAfter(afterPrice, afterId, pageRequest)
+                : productRepository.findByIdGreaterThanOrderByIdAsc(afterId, pageRequest);
+
+        String next = null;
+        if (products.size() > pageSize) {
+            products = products.subList(0, pageSize);
+            Product last = products.get(pageSize - 1);
+            next = encodeCursor(byPrice, last);
+        }
+
+        List<ProductDto> items = products.stream()
+                .map(this::convertToDto)
+                .collect(Collectors.toList());
+        return new ProductPageDto(items, next);
+    }
+
+    @Transactional(readOnly = true)
+    public void streamAllProducts(OutputStream outputStream) throws IOException {
+        JsonGenerator generator = objectMapper.createGenerator(outputStream);
+        generator.writeStartArray();
+        try (Stream<Product> products = productRepository.streamAllOrderById()) {
+            Iterator<Product> iterator = products.iterator();
+            while (iterator.hasNext()) {
+                Product product = iterator.next();
+                generator.writeObject(convertToDto(product));
+                // Drop the row from the persistence context so memory stays flat over the whole catalog
+                entityManager.detach(product);
+            }
+        }
+        generator.writeEndArray();
+        generator.flush();
+    }
+
     public List<ProductDto> getFeaturedProducts() {
         return productRepository.findByFeatured(true).stream()
                 .map(this::convertToDto)
@@ -110,6 +195,22 @@ public class ProductService {
         }
     }
 
+    private String encodeCursor(boolean byPrice, Product last) {
+        String raw = byPrice
+                ? "price:" + last.getId() + ":" + last.getPrice().toPlainString()
+                : "id:" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String[] decodeCursor(String cursor, boolean byPrice) {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        String[] parts = raw.split(":");
+        if (parts.length != (byPrice ? 3 : 2) || !parts[0].equals(byPrice ? "price" : "id")) {
+            throw new IllegalArgumentException("Cursor does not match sort order");
+        }
+        return parts;
+    }
+
     private ProductDto convertToDto(Product product) {
         ProductDto productDto = new ProductDto();
         productDto.setId(product.getId());
@@ -117,6 +218,9 @@ public class ProductService {
         productDto.setDescription(product.getDescription());
         productDto.setPrice(product.getPrice());
         productDto.setInventory(product.getInventory());
+        if (product.getInventory() != null) {
+            productDto.setAvailable(inventoryReservations.available(product.getId(), product.getInventory()));
+        }
         productDto.setFeatured(product.getFeatured());
         productDto.setImages(product.getImages());
         productDto.setColors(product.getColors());
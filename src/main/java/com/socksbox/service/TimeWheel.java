@@ -0,0 +1,69 @@
+
+package com.socksbox.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timing wheel: entries are dropped into the slot of the tick they expire in,
+ * so scheduling is constant time and advancing only looks at the slots that passed.
+ * Entries further out than one turn of the wheel stay in their slot until their round
+ * comes up. Entries cannot be cancelled, callers ignore the ones that went stale.
+ */
+class TimeWheel<T> {
+
+    private final long tickMillis;
+    private final List<Entry<T>>[] slots;
+    private long lastTick;
+
+    @SuppressWarnings("unchecked")
+    TimeWheel(int slotCount, long tickMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.slots = new List[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.lastTick = now / tickMillis;
+    }
+
+    synchronized void schedule(T value, long expiresAt) {
+        // First tick at or after the expiry, and never behind the cursor or the
+        // entry would wait for a full turn
+        long tick = Math.max((expiresAt + tickMillis - 1) / tickMillis, lastTick + 1);
+        slots[(int) (tick % slots.length)].add(new Entry<>(value, expiresAt));
+    }
+
+    /**
+     * Removes and returns every entry that expired up to {@code now}.
+     */
+    synchronized List<T> advance(long now) {
+        List<T> expired = new ArrayList<>();
+        long tick = now / tickMillis;
+        // After a long pause every slot is due once, later rounds stay where they are
+        long from = Math.max(lastTick + 1, tick - slots.length + 1);
+        for (long t = from; t <= tick; t++) {
+            Iterator<Entry<T>> entries = slots[(int) (t % slots.length)].iterator();
+            while (entries.hasNext()) {
+                Entry<T> entry = entries.next();
+                if (entry.expiresAt <= now) {
+                    expired.add(entry.value);
+                    entries.remove();
+                }
+            }
+        }
+        lastTick = Math.max(lastTick, tick);
+        return expired;
+    }
+
+    private static final class Entry<T> {
+
+        private final T value;
+        private final long expiresAt;
+
+        private Entry(T value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
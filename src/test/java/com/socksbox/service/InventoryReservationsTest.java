@@ -0,0 +1,129 @@
+
+package com.socksbox.service;
+
+import com.socksbox.entity.Product;
+import com.socksbox.exception.InsufficientStockException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InventoryReservationsTest {
+
+    private static final long TTL_MILLIS = 400;
+    private static final long TICK_MILLIS = 10;
+
+    private InventoryReservations reservations;
+    private Product product;
+
+    @BeforeEach
+    void setUp() {
+        reservations = new InventoryReservations();
+        ReflectionTestUtils.setField(reservations, "ttlMillis", TTL_MILLIS);
+        ReflectionTestUtils.setField(reservations, "tickMillis", TICK_MILLIS);
+        reservations.init();
+
+        product = new Product();
+        product.setId(1L);
+        product.setName("Wool socks");
+        product.setInventory(10);
+    }
+
+    @AfterEach
+    void clearTransaction() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void holdsLeaveOthersOnlyWhatIsUnreserved() {
+        reservations.reserve(1L, product, 6);
+
+        assertThat(reservations.available(1L, 10)).isEqualTo(4);
+        assertThat(reservations.availableTo(1L, 1L, 10)).isEqualTo(10);
+        assertThatThrownBy(() -> reservations.reserve(2L, product, 5)).isInstanceOf(InsufficientStockException.class);
+
+        reservations.reserve(2L, product, 4);
+        // Shrinking always succeeds, growing only into what is free
+        reservations.reserve(1L, product, 2);
+        assertThat(reservations.available(1L, 10)).isEqualTo(4);
+        assertThatThrownBy(() -> reservations.reserve(1L, product, 7)).isInstanceOf(InsufficientStockException.class);
+    }
+
+    @Test
+    void holdsLapseAfterTheirTimeToLive() throws InterruptedException {
+        reservations.reserve(1L, product, 10);
+        reservations.expire();
+        assertThat(reservations.available(1L, 10)).isZero();
+
+        Thread.sleep(TTL_MILLIS + 5 * TICK_MILLIS);
+        reservations.expire();
+        assertThat(reservations.available(1L, 10)).isEqualTo(10);
+    }
+
+    @Test
+    void changingAHoldRestartsItsTimeToLive() throws InterruptedException {
+        reservations.reserve(1L, product, 3);
+        Thread.sleep(TTL_MILLIS / 2);
+        reservations.reserve(1L, product, 4);
+        // Past the first hold's expiry, well before the second's
+        Thread.sleep(TTL_MILLIS / 2 + TTL_MILLIS / 4);
+        reservations.expire();
+
+        // The first hold's slot came up, but it had been replaced
+        assertThat(reservations.available(1L, 10)).isEqualTo(6);
+    }
+
+    @Test
+    void rolledBackChangesLeaveTheHoldAsItWas() {
+        reservations.reserve(1L, product, 2);
+
+        inTransaction(TransactionSynchronization.STATUS_ROLLED_BACK, () -> reservations.reserve(1L, product, 9));
+        assertThat(reservations.available(1L, 10)).isEqualTo(8);
+
+        inTransaction(TransactionSynchronization.STATUS_ROLLED_BACK, () -> reservations.reserve(1L, product, 0));
+        assertThat(reservations.available(1L, 10)).isEqualTo(8);
+
+        inTransaction(TransactionSynchronization.STATUS_ROLLED_BACK, () -> reservations.reserve(2L, product, 5));
+        assertThat(reservations.available(1L, 10)).isEqualTo(8);
+
+        inTransaction(TransactionSynchronization.STATUS_COMMITTED, () -> reservations.reserve(1L, product, 9));
+        assertThat(reservations.available(1L, 10)).isEqualTo(1);
+    }
+
+    @Test
+    void releaseAfterCommitWaitsForTheCommit() {
+        reservations.reserve(1L, product, 5);
+
+        inTransaction(TransactionSynchronization.STATUS_ROLLED_BACK, () -> reservations.releaseAllAfterCommit(1L));
+        assertThat(reservations.available(1L, 10)).isEqualTo(5);
+
+        inTransaction(TransactionSynchronization.STATUS_COMMITTED, () -> reservations.releaseAllAfterCommit(1L));
+        assertThat(reservations.available(1L, 10)).isEqualTo(10);
+    }
+
+    // Runs the change with transaction synchronization active and then completes it like a transaction would
+    private static void inTransaction(int status, Runnable change) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            change.run();
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            for (TransactionSynchronization synchronization : synchronizations) {
+                if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                    synchronization.afterCommit();
+                }
+                synchronization.afterCompletion(status);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+}